@@ -0,0 +1,236 @@
+package com.voodoodyne.postguice.benchmarks;
+
+import org.hibernate.cfg.Environment;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * <p>JDBC stand-ins that never leave the JVM, so benchmarks measure our code and not the network.</p>
+ *
+ * <p>The {@link Driver} hands out connections that answer any query from memory: a generate_series query
+ * returns as many rows as its second parameter asks for, anything else returns a single row. Values come
+ * from one shared counter, like a sequence. That is enough for the pools (including DBCP's validation query)
+ * and for {@code Sequence} refills.</p>
+ */
+public class InMemoryJdbc {
+	public static final String URL = "jdbc:postguice-memory:benchmark";
+
+	/** Name to use for hibernate.connection.driver_class */
+	public static final String DRIVER = Driver.class.getName();
+
+	private static final AtomicLong COUNTER = new AtomicLong();
+
+	/** Registers itself with DriverManager when this class is loaded */
+	public static class Driver implements java.sql.Driver {
+		static {
+			try {
+				DriverManager.registerDriver(new Driver());
+			} catch (SQLException e) {
+				throw new ExceptionInInitializerError(e);
+			}
+		}
+
+		@Override
+		public Connection connect(final String url, final Properties info) {
+			return acceptsURL(url) ? connection() : null;
+		}
+
+		@Override
+		public boolean acceptsURL(final String url) {
+			return URL.equals(url);
+		}
+
+		@Override
+		public DriverPropertyInfo[] getPropertyInfo(final String url, final Properties info) {
+			return new DriverPropertyInfo[0];
+		}
+
+		@Override
+		public int getMajorVersion() {
+			return 1;
+		}
+
+		@Override
+		public int getMinorVersion() {
+			return 0;
+		}
+
+		@Override
+		public boolean jdbcCompliant() {
+			return false;
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+	}
+
+	/** Enough configuration for any of our connection providers to talk to the in-memory driver */
+	public static Map<String, Object> providerProperties() {
+		final Map<String, Object> props = new HashMap<>();
+		props.put(Environment.DRIVER, DRIVER);
+		props.put(Environment.URL, URL);
+		props.put(Environment.USER, "benchmark");
+		props.put(Environment.PASS, "benchmark");
+		return props;
+	}
+
+	public static Connection connection() {
+		final Map<String, Object> state = new HashMap<>();
+		state.put("getAutoCommit", true);
+		state.put("getTransactionIsolation", Connection.TRANSACTION_READ_COMMITTED);
+		state.put("isReadOnly", false);
+		state.put("isClosed", false);
+
+		return proxy(Connection.class, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "setAutoCommit":
+				case "setTransactionIsolation":
+				case "setReadOnly":
+					state.put("get" + method.getName().substring(3), args[0]);
+					state.put("is" + method.getName().substring(3), args[0]);
+					return null;
+				case "getAutoCommit":
+				case "getTransactionIsolation":
+				case "isReadOnly":
+				case "isClosed":
+					return state.get(method.getName());
+				case "close":
+					state.put("isClosed", true);
+					return null;
+				case "isValid":
+					return true;
+				case "createStatement":
+				case "prepareStatement":
+					return statement(args == null || args.length == 0 ? null : (String)args[0]);
+				default:
+					return null;
+			}
+		});
+	}
+
+	/** A statement (or prepared statement) which remembers its parameters */
+	private static PreparedStatement statement(final String preparedSql) {
+		final Map<Integer, Object> params = new HashMap<>();
+
+		return proxy(PreparedStatement.class, (proxy, method, args) -> {
+			final String name = method.getName();
+
+			if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+				params.put((Integer)args[0], args[1]);
+				return null;
+			}
+
+			switch (name) {
+				case "executeQuery":
+					final String sql = args == null ? preparedSql : (String)args[0];
+					final int rows = sql.contains("generate_series") ? ((Number)params.get(2)).intValue() : 1;
+					return rows(rows);
+				case "execute":
+					return true;
+				case "executeUpdate":
+					return 1;
+				default:
+					return null;
+			}
+		});
+	}
+
+	/** Rows with a single long column, values taken from the shared counter */
+	private static ResultSet rows(final int count) {
+		final int[] row = {0};
+		final long first = COUNTER.getAndAdd(count) + 1;
+
+		return proxy(ResultSet.class, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "next":
+					return ++row[0] <= count;
+				case "getLong":
+					return first + row[0] - 1;
+				case "getInt":
+					return (int)(first + row[0] - 1);
+				case "getObject":
+					return first + row[0] - 1;
+				case "wasNull":
+					return false;
+				default:
+					return null;
+			}
+		});
+	}
+
+	/** A positioned single-row result set whose one column holds these bytes (or null) */
+	public static ResultSet column(final byte[] value) {
+		return proxy(ResultSet.class, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "getBytes":
+					return value;
+				case "getString":
+					return value == null ? null : new String(value, StandardCharsets.UTF_8);
+				case "wasNull":
+					return value == null;
+				default:
+					return null;
+			}
+		});
+	}
+
+	/** A prepared statement that throws away whatever is bound to it */
+	public static PreparedStatement sink() {
+		return proxy(PreparedStatement.class, (proxy, method, args) -> null);
+	}
+
+	/** Proxies for interfaces we only partially implement; primitives default to zero/false */
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(final Class<T> iface, final InvocationHandler handler) {
+		return (T)Proxy.newProxyInstance(InMemoryJdbc.class.getClassLoader(), new Class<?>[] { iface }, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return iface.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+			}
+
+			final Object result = handler.invoke(proxy, method, args);
+			return result == null ? defaultValue(method) : result;
+		});
+	}
+
+	private static Object defaultValue(final Method method) {
+		final Class<?> type = method.getReturnType();
+		if (type == boolean.class)
+			return false;
+		else if (type == int.class)
+			return 0;
+		else if (type == long.class)
+			return 0L;
+		else if (type == double.class)
+			return 0.0;
+		else if (type == float.class)
+			return 0f;
+		else if (type == short.class)
+			return (short)0;
+		else if (type == byte.class)
+			return (byte)0;
+		else
+			return null;
+	}
+}
@@ -0,0 +1,95 @@
+package com.voodoodyne.postguice.benchmarks;
+
+import com.voodoodyne.postguice.dbcp.DBCPConnectionProvider;
+import com.voodoodyne.postguice.pool.PostguiceConnectionProvider;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Borrow and return through the connection providers, in the way hibernate uses them. The pool holds
+ * {@value #POOL_SIZE} connections; the contended variants run more threads than that. {@code holdTokens}
+ * is busy work done while holding the connection, which stretches out the time others have to wait.
+ * DBCP is configured with its usual validation query on borrow and return.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PoolBenchmark {
+	private static final int POOL_SIZE = 8;
+
+	@Param({ "postguice", "dbcp" })
+	private String pool;
+
+	@Param({ "0", "100" })
+	private int holdTokens;
+
+	private ConnectionProvider provider;
+
+	@Setup
+	public void setUp() {
+		if ("dbcp".equals(pool)) {
+			final DBCPConnectionProvider dbcp = new DBCPConnectionProvider();
+			dbcp.setDbcpMaxActive(POOL_SIZE);
+			dbcp.setDbcpMaxIdle(POOL_SIZE);
+			provider = dbcp;
+		} else {
+			final PostguiceConnectionProvider postguice = new PostguiceConnectionProvider();
+			postguice.setMaxSize(POOL_SIZE);
+			provider = postguice;
+		}
+
+		((Configurable)provider).configure(InMemoryJdbc.providerProperties());
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (provider instanceof Stoppable)
+			((Stoppable)provider).stop();
+	}
+
+	private void borrowAndReturn() throws SQLException {
+		final Connection connection = provider.getConnection();
+		Blackhole.consumeCPU(holdTokens);
+		provider.closeConnection(connection);
+	}
+
+	@Benchmark
+	@Threads(1)
+	public void uncontended() throws SQLException {
+		borrowAndReturn();
+	}
+
+	@Benchmark
+	@Threads(POOL_SIZE)
+	public void poolSizeThreads() throws SQLException {
+		borrowAndReturn();
+	}
+
+	@Benchmark
+	@Threads(4 * POOL_SIZE)
+	public void contended() throws SQLException {
+		borrowAndReturn();
+	}
+}
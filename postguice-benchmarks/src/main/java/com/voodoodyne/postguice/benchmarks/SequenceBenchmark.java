@@ -0,0 +1,75 @@
+package com.voodoodyne.postguice.benchmarks;
+
+import com.voodoodyne.postguice.Sequence;
+import com.voodoodyne.postguice.pool.PostguiceConnectionProvider;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link Sequence#next()}, alone and under contention. Refills go through a real pool to the
+ * in-memory driver, so they are far cheaper than against Postgres; this measures the allocator, not the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SequenceBenchmark {
+
+	@Param({ "100", "1000" })
+	private int batchSize;
+
+	private PostguiceConnectionProvider provider;
+	private Sequence sequence;
+
+	@Setup
+	public void setUp() {
+		provider = new PostguiceConnectionProvider();
+		provider.configure(InMemoryJdbc.providerProperties());
+
+		sequence = new Sequence("benchmark_seq", batchSize) {
+			@Override
+			protected ConnectionProvider connectionProvider() {
+				return provider;
+			}
+		};
+	}
+
+	@TearDown
+	public void tearDown() {
+		provider.stop();
+	}
+
+	@Benchmark
+	@Threads(1)
+	public long next() {
+		return sequence.next();
+	}
+
+	@Benchmark
+	@Threads(8)
+	public long next8Threads() {
+		return sequence.next();
+	}
+
+	@Benchmark
+	@Threads(32)
+	public long next32Threads() {
+		return sequence.next();
+	}
+}
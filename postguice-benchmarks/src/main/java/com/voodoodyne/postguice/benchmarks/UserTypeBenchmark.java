@@ -0,0 +1,115 @@
+package com.voodoodyne.postguice.benchmarks;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.voodoodyne.postguice.usertype.JsonNodeUserType;
+import com.voodoodyne.postguice.usertype.MapUserType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of moving JSON documents through the usertypes: reading a column, binding a parameter, and the deep copy
+ * hibernate makes on load and merge. Documents have {@code fields} entries, each a small nested object.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class UserTypeBenchmark {
+	private static final ObjectMapper MAPPER = new ObjectMapper();
+	private static final String[] COLUMNS = { "data" };
+
+	@Param({ "10", "100", "1000" })
+	private int fields;
+
+	private final MapUserType mapType = new MapUserType();
+	private final JsonNodeUserType nodeType = new JsonNodeUserType();
+	private final PreparedStatement sink = InMemoryJdbc.sink();
+
+	private ResultSet textColumn;
+	private ResultSet binaryColumn;
+	private Map<String, Object> map;
+	private JsonNode node;
+
+	@Setup
+	public void setUp() throws Exception {
+		map = new LinkedHashMap<>();
+		for (int i = 0; i < fields; i++) {
+			final Map<String, Object> field = new LinkedHashMap<>();
+			field.put("name", "value " + i);
+			field.put("count", i);
+			field.put("active", i % 2 == 0);
+			field.put("tags", Arrays.asList("red", "green", "blue"));
+			map.put("field" + i, field);
+		}
+		node = MAPPER.valueToTree(map);
+
+		final byte[] text = MAPPER.writeValueAsBytes(map);
+		final byte[] binary = new byte[text.length + 1];
+		binary[0] = 1;	// jsonb binary format version
+		System.arraycopy(text, 0, binary, 1, text.length);
+
+		textColumn = InMemoryJdbc.column(text);
+		binaryColumn = InMemoryJdbc.column(binary);
+	}
+
+	@Benchmark
+	public Object getMap() throws SQLException {
+		return mapType.nullSafeGet(textColumn, COLUMNS, null, null);
+	}
+
+	@Benchmark
+	public Object getMapBinaryJsonb() throws SQLException {
+		return mapType.nullSafeGet(binaryColumn, COLUMNS, null, null);
+	}
+
+	@Benchmark
+	public Object getJsonNode() throws SQLException {
+		return nodeType.nullSafeGet(textColumn, COLUMNS, null, null);
+	}
+
+	@Benchmark
+	public void setMap() throws SQLException {
+		mapType.nullSafeSet(sink, map, 1, null);
+	}
+
+	@Benchmark
+	public void setJsonNode() throws SQLException {
+		nodeType.nullSafeSet(sink, node, 1, null);
+	}
+
+	@Benchmark
+	public Object deepCopyMap() {
+		return mapType.deepCopy(map);
+	}
+
+	@Benchmark
+	public Object deepCopyJsonNode() {
+		return nodeType.deepCopy(node);
+	}
+
+	/** What the second-level cache does with every entry */
+	@Benchmark
+	public Object cacheRoundTripMap() {
+		return mapType.assemble(mapType.disassemble(map), null);
+	}
+}
@@ -1,15 +1,11 @@
 package com.voodoodyne.postguice.test;
 
 import com.voodoodyne.postguice.DatabaseConfig;
-import lombok.SneakyThrows;
-import lombok.extern.slf4j.Slf4j;
-import org.postgresql.Driver;
+import com.voodoodyne.postguice.test.TestDatabasePool.Reset;
 
 import javax.inject.Provider;
-import java.sql.Connection;
-import java.sql.DriverManager;
-import java.sql.Statement;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This allows us to clone a template database for testing.  By treating the credentials as singleton
@@ -17,52 +13,31 @@ import java.util.Map;
  *
  * In your test module, bind your concrete subclass like this:
  * this.bind(DatabaseConfig.class).toProvider(DatabaseConfigMaker.class).in(Singleton.class);
+ *
+ * Clones come from a {@link TestDatabasePool} per template, shared by the whole JVM, which keeps
+ * {@link #readyDatabases()} of them cloned ahead of time and drops them all when the JVM exits.
  */
-@Slf4j
 abstract public class AbstractDatabaseConfigMaker implements Provider<DatabaseConfig> {
 
+	private static final Map<String, TestDatabasePool> POOLS = new ConcurrentHashMap<>();
+
 	/** */
 	abstract protected DatabaseConfig templateDatabaseConfig();
 
+	/** How many clones to keep ready; raise it if one JVM creates several injectors in parallel */
+	protected int readyDatabases() {
+		return 1;
+	}
+
 	@Override
-	@SneakyThrows
 	public DatabaseConfig get() {
 		final DatabaseConfig templateConfig = templateDatabaseConfig();
 
-		final String templateDatabaseName = templateConfig.getUrl().split(":")[2];
-		final String cloneDatabaseName = "zz_" + System.currentTimeMillis();
-
-		log.info("********** Creating test database: " + cloneDatabaseName);
-
-		Class.forName(Driver.class.getName());
-
-		try (final Connection conn = DriverManager.getConnection(templateConfig.getUrl(), templateConfig.getUser(), templateConfig.getPassword())) {
-			try (final Statement statement = conn.createStatement()) {
-				statement.execute("CREATE DATABASE " + cloneDatabaseName + " TEMPLATE \"" + templateDatabaseName + "\"");
-			}
-		}
-
-		return new DatabaseConfig() {
-			@Override
-			public String getUrl() {
-				return "jdbc:postgresql:" + cloneDatabaseName;
-			}
-
-			@Override
-			public String getUser() {
-				return templateConfig.getUser();
-			}
-
-			@Override
-			public String getPassword() {
-				return templateConfig.getPassword();
-			}
-
-			@Override
-			public Map<String, String> getProperties() {
-				return templateConfig.getProperties();
-			}
-		};
+		return POOLS.computeIfAbsent(templateConfig.getUrl(), url -> {
+			final TestDatabasePool pool = new TestDatabasePool(templateConfig, readyDatabases(), Reset.RECLONE);
+			Runtime.getRuntime().addShutdownHook(new Thread(pool::close, "postguice-test-drop"));
+			return pool;
+		}).acquire();
 	}
 
 }
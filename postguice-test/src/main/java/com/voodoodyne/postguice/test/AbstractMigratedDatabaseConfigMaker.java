@@ -0,0 +1,40 @@
+package com.voodoodyne.postguice.test;
+
+import com.voodoodyne.postguice.DatabaseConfig;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Like {@link AbstractDatabaseConfigMaker}, but instead of naming a template you maintain by hand, you name
+ * a server and your flyway migrations; the template is built from them and cached (see {@link TemplateCache}).
+ *
+ * In your test module, bind your concrete subclass like this:
+ * this.bind(DatabaseConfig.class).toProvider(DatabaseConfigMaker.class).in(Singleton.class);
+ */
+abstract public class AbstractMigratedDatabaseConfigMaker extends AbstractDatabaseConfigMaker {
+
+	private static final Map<String, DatabaseConfig> TEMPLATES = new ConcurrentHashMap<>();
+
+	/** Any database on the server, eg jdbc:postgresql:postgres, as a user who can create databases */
+	abstract protected DatabaseConfig serverDatabaseConfig();
+
+	/** Flyway migration locations */
+	protected String[] migrationLocations() {
+		return new String[] { "db/migration" };
+	}
+
+	/** How many templates to keep on the server */
+	protected int keepTemplates() {
+		return 3;
+	}
+
+	@Override
+	protected DatabaseConfig templateDatabaseConfig() {
+		final DatabaseConfig server = serverDatabaseConfig();
+		final String[] locations = migrationLocations();
+
+		return TEMPLATES.computeIfAbsent(server.getUrl() + " " + String.join(",", locations),
+				key -> new TemplateCache(server, keepTemplates(), locations).template());
+	}
+}
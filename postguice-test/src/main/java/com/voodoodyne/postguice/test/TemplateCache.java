@@ -0,0 +1,228 @@
+package com.voodoodyne.postguice.test;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.voodoodyne.postguice.DatabaseConfig;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.flywaydb.core.Flyway;
+import org.flywaydb.core.internal.util.Location;
+import org.flywaydb.core.internal.util.scanner.Resource;
+import org.flywaydb.core.internal.util.scanner.Scanner;
+import org.postgresql.Driver;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Template databases built by flyway, named after a hash of the migrations, so a template is migrated once
+ * per schema change instead of once per test run (or by hand). Every database server keeps its own cache:
+ * the first run after a migration changes builds the new template, and later runs (on any machine or CI job
+ * sharing the server) just find it.</p>
+ *
+ * <p>Templates are named {@code zz_template_<hash>}. The hash covers the path and content of every resource
+ * under the migration locations, so editing, adding, renaming, or deleting a migration (SQL or Java) changes
+ * it. Each use stamps the database's comment with the time; all but the {@link #keep} most recently used
+ * templates are dropped, so switching back and forth between branches stays fast. A template used in the last
+ * {@value #RECENT_USE_MINUTES} minutes is never dropped, since another run may be about to clone it.</p>
+ *
+ * <p>A template is built under a temporary name and renamed when complete, so a half-migrated template is
+ * never used, and concurrent builds of the same template simply race to the rename.</p>
+ */
+@Slf4j
+public class TemplateCache {
+	public static final String PREFIX = "zz_template_";
+
+	private static final String BUILDING = "_building_";
+	private static final String DUPLICATE_DATABASE = "42P04";
+
+	private static final long RECENT_USE_MINUTES = 15;
+
+	private final DatabaseConfig server;
+	private final String[] locations;
+	private final int keep;
+
+	/**
+	 * @param server can connect to any database on the server (eg postgres) as a user with CREATEDB
+	 * @param locations are flyway migration locations, eg "db/migration" or "filesystem:src/main/resources/db/migration"
+	 * @param keep is how many templates to keep around, including the current one
+	 */
+	public TemplateCache(final DatabaseConfig server, final int keep, final String... locations) {
+		this.server = server;
+		this.locations = locations;
+		this.keep = keep;
+	}
+
+	/** @return the template for the current migrations, building it if necessary */
+	@SneakyThrows
+	public DatabaseConfig template() {
+		final String name = PREFIX + fingerprint();
+
+		try (final Connection conn = connect(server.getUrl())) {
+			if (exists(conn, name)) {
+				log.info("Using cached template database {}", name);
+			} else {
+				build(conn, name);
+			}
+
+			touch(conn, name);
+			collectGarbage(conn, name);
+		}
+
+		return config(TestDatabasePool.withDatabaseName(server.getUrl(), name));
+	}
+
+	/** Hex hash of every migration resource */
+	String fingerprint() {
+		final Scanner scanner = new Scanner(Thread.currentThread().getContextClassLoader());
+		final Hasher hasher = Hashing.sha256().newHasher();
+
+		for (final String location : locations) {
+			final List<Resource> resources = new ArrayList<>(Arrays.asList(scanner.scanForResources(new Location(location), "", "")));
+			resources.sort(Comparator.comparing(Resource::getLocation));
+
+			for (final Resource resource : resources) {
+				final byte[] content = resource.loadAsBytes();
+				hasher.putString(resource.getLocation(), StandardCharsets.UTF_8);
+				hasher.putInt(content.length);
+				hasher.putBytes(content);
+			}
+		}
+
+		return hasher.hash().toString().substring(0, 16);
+	}
+
+	private void build(final Connection conn, final String name) throws SQLException {
+		final String building = name + BUILDING + UUID.randomUUID().toString().substring(0, 8);
+		final long start = System.currentTimeMillis();
+
+		log.info("Building template database {}", name);
+
+		execute(conn, "CREATE DATABASE " + building + " TEMPLATE template0");
+		try {
+			final Flyway flyway = new Flyway();
+			flyway.setDataSource(TestDatabasePool.withDatabaseName(server.getUrl(), building), server.getUser(), server.getPassword());
+			flyway.setLocations(locations);
+			flyway.migrate();
+
+			try {
+				execute(conn, "ALTER DATABASE " + building + " RENAME TO " + name);
+				log.info("Built template database {} in {}ms", name, System.currentTimeMillis() - start);
+			} catch (SQLException e) {
+				if (!DUPLICATE_DATABASE.equals(e.getSQLState()))
+					throw e;
+
+				log.info("Template database {} was built concurrently; discarding ours", name);
+				execute(conn, "DROP DATABASE " + building);
+			}
+		} catch (RuntimeException | SQLException e) {
+			execute(conn, "DROP DATABASE IF EXISTS " + building);
+			throw e;
+		}
+	}
+
+	/** Record the last use in the comment, which is the only per-database metadata anyone can write */
+	private static void touch(final Connection conn, final String name) throws SQLException {
+		execute(conn, "COMMENT ON DATABASE " + name + " IS '" + System.currentTimeMillis() + "'");
+	}
+
+	/**
+	 * Drop all but the most recently used templates, except ones used recently enough that another run may be
+	 * about to clone them; templates in use by someone else are skipped
+	 */
+	private void collectGarbage(final Connection conn, final String current) throws SQLException {
+		final List<String> old = new ArrayList<>();
+		final long recent = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(RECENT_USE_MINUTES);
+
+		try (final PreparedStatement stmt = conn.prepareStatement(
+				"SELECT datname, shobj_description(oid, 'pg_database') FROM pg_database"
+						+ " WHERE datname LIKE 'zz\\_template\\_%' AND datname NOT LIKE '%" + BUILDING + "%' AND datname <> ?"
+						+ " ORDER BY shobj_description(oid, 'pg_database') DESC NULLS LAST")) {
+			stmt.setString(1, current);
+			try (final ResultSet rs = stmt.executeQuery()) {
+				int kept = 1;
+				while (rs.next()) {
+					if (kept < keep)
+						kept++;
+					else if (lastUsed(rs.getString(2)) < recent)
+						old.add(rs.getString(1));
+				}
+			}
+		}
+
+		for (final String name : old) {
+			try {
+				execute(conn, "DROP DATABASE " + name);
+				log.info("Dropped old template database {}", name);
+			} catch (SQLException e) {
+				log.warn("Could not drop old template database {}: {}", name, e.getMessage());
+			}
+		}
+	}
+
+	/** @return the time stamped by touch(), or 0 if the comment isn't one */
+	private static long lastUsed(final String comment) {
+		try {
+			return comment == null ? 0 : Long.parseLong(comment);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+
+	private static boolean exists(final Connection conn, final String name) throws SQLException {
+		try (final PreparedStatement stmt = conn.prepareStatement("SELECT 1 FROM pg_database WHERE datname = ?")) {
+			stmt.setString(1, name);
+			try (final ResultSet rs = stmt.executeQuery()) {
+				return rs.next();
+			}
+		}
+	}
+
+	private static void execute(final Connection conn, final String sql) throws SQLException {
+		try (final Statement statement = conn.createStatement()) {
+			statement.execute(sql);
+		}
+	}
+
+	@SneakyThrows
+	private Connection connect(final String url) {
+		Class.forName(Driver.class.getName());
+		return DriverManager.getConnection(url, server.getUser(), server.getPassword());
+	}
+
+	private DatabaseConfig config(final String url) {
+		return new DatabaseConfig() {
+			@Override
+			public String getUrl() {
+				return url;
+			}
+
+			@Override
+			public String getUser() {
+				return server.getUser();
+			}
+
+			@Override
+			public String getPassword() {
+				return server.getPassword();
+			}
+
+			@Override
+			public Map<String, String> getProperties() {
+				return server.getProperties();
+			}
+		};
+	}
+}
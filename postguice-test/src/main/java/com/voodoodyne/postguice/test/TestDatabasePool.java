@@ -0,0 +1,337 @@
+package com.voodoodyne.postguice.test;
+
+import com.google.common.base.Joiner;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.voodoodyne.postguice.DatabaseConfig;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.postgresql.Driver;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Keeps a number of clones of a template database ready, so tests don't wait on {@code CREATE DATABASE}.
+ * Clones are made one at a time on a background thread, and every clone is dropped when the pool is closed.</p>
+ *
+ * <p>Postgres refuses to clone a template while anyone else is connected to it (SQLState 55006), which
+ * happens when parallel forks clone the same template at the same moment. So the pool works from the
+ * {@value #MAINTENANCE_DATABASE} database, never connecting to the template itself, and retries clones
+ * that collide for up to {@value #CLONE_RETRY_MILLIS}ms. If cloning still fails, acquire() throws, and
+ * the next acquire() tries again.</p>
+ *
+ * <p>Each parallel test worker takes its own database, either explicitly with {@link #acquire()} and
+ * {@link #release(TestDatabase)}, or once per thread with {@link #forCurrentThread()}. Between tests,
+ * {@link TestDatabase#reset()} empties it according to the pool's {@link Reset} strategy.</p>
+ *
+ * <p>Names are {@code zz_<random>_<n>}, unique per pool, so parallel forks never collide.</p>
+ */
+@Slf4j
+public class TestDatabasePool implements AutoCloseable {
+
+	/** How a database is made clean again between tests */
+	public enum Reset {
+		/**
+		 * Truncate every table in the current schema (with RESTART IDENTITY CASCADE) in one statement. Fast, but
+		 * rows inserted by migrations are lost too; name those tables in the constructor to keep them.
+		 */
+		TRUNCATE,
+		/** Drop the database and start over with a fresh clone of the template. Slower, but exact. */
+		RECLONE
+	}
+
+	/** The flyway 4 metadata table */
+	public static final String FLYWAY_TABLE = "schema_version";
+
+	/** Where we connect to create and drop databases */
+	public static final String MAINTENANCE_DATABASE = "postgres";
+
+	public static final long CLONE_RETRY_MILLIS = 60000;
+
+	/** object_in_use: the template has other connections */
+	private static final String OBJECT_IN_USE = "55006";
+
+	private final DatabaseConfig template;
+	private final String templateName;
+	private final int size;
+	private final Reset reset;
+	private final Set<String> preservedTables;
+
+	private final String prefix = "zz_" + UUID.randomUUID().toString().substring(0, 8) + "_";
+	private final AtomicInteger counter = new AtomicInteger();
+
+	private final BlockingQueue<TestDatabase> ready = new LinkedBlockingQueue<>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final Set<TestDatabase> all = ConcurrentHashMap.newKeySet();
+	private final ThreadLocal<TestDatabase> perThread = new ThreadLocal<>();
+
+	private final ExecutorService cloner = Executors.newSingleThreadExecutor(
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("postguice-test-clone-%d").build());
+
+	private volatile Throwable failure;
+	private volatile boolean closed;
+
+	/**
+	 * @param size is how many databases to keep ready; usually the number of parallel test workers
+	 * @param preservedTables are never truncated; the flyway table always is preserved
+	 */
+	public TestDatabasePool(final DatabaseConfig template, final int size, final Reset reset, final String... preservedTables) {
+		this.template = template;
+		this.templateName = databaseName(template.getUrl());
+		this.size = size;
+		this.reset = reset;
+		this.preservedTables = new HashSet<>(Arrays.asList(preservedTables));
+		this.preservedTables.add(FLYWAY_TABLE);
+
+		replenish();
+	}
+
+	/** Take a database for the exclusive use of the caller, waiting for one to be cloned if necessary */
+	@SneakyThrows
+	public TestDatabase acquire() {
+		replenish();
+
+		while (true) {
+			if (closed)
+				throw new IllegalStateException("Pool is closed");
+
+			final TestDatabase db = ready.poll(1, TimeUnit.SECONDS);
+			if (db != null) {
+				replenish();
+				return db;
+			}
+
+			final Throwable t = failure;
+			if (t != null && pending.get() == 0) {
+				failure = null;
+				throw new IllegalStateException("Could not clone " + templateName, t);
+			}
+		}
+	}
+
+	/** Reset a database and give it back to the pool */
+	public void release(final TestDatabase db) {
+		if (reset == Reset.RECLONE) {
+			cloner.execute(() -> drop(db));
+		} else {
+			db.reset();
+			ready.add(db);
+		}
+	}
+
+	/** @return the database owned by this thread, acquiring it on first use; it is never released */
+	public TestDatabase forCurrentThread() {
+		TestDatabase db = perThread.get();
+		if (db == null) {
+			db = acquire();
+			perThread.set(db);
+		}
+		return db;
+	}
+
+	/** Drop every database this pool has created, including ones still in use */
+	@Override
+	@SneakyThrows
+	public void close() {
+		closed = true;
+		cloner.shutdownNow();
+		cloner.awaitTermination(1, TimeUnit.MINUTES);
+
+		for (final TestDatabase db : all)
+			drop(db);
+	}
+
+	/** Schedule clones until there are enough ready or on the way */
+	private void replenish() {
+		while (!closed && ready.size() + pending.get() < size) {
+			pending.incrementAndGet();
+			cloner.execute(() -> {
+				try {
+					ready.add(createClone());
+				} catch (Throwable t) {
+					log.error("Could not clone " + templateName, t);
+					failure = t;
+				} finally {
+					pending.decrementAndGet();
+				}
+			});
+		}
+	}
+
+	private TestDatabase createClone() throws SQLException, InterruptedException {
+		final String name = prefix + counter.incrementAndGet();
+		final long start = System.currentTimeMillis();
+
+		try (final Connection conn = adminConnection(); final Statement statement = conn.createStatement()) {
+			for (long backoff = 50; ; backoff = Math.min(backoff * 2, 1000)) {
+				try {
+					statement.execute("CREATE DATABASE " + name + " TEMPLATE \"" + templateName + "\"");
+					break;
+				} catch (SQLException e) {
+					if (!OBJECT_IN_USE.equals(e.getSQLState()) || System.currentTimeMillis() - start > CLONE_RETRY_MILLIS)
+						throw e;
+
+					log.debug("Template {} is busy, retrying clone in {}ms", templateName, backoff);
+					Thread.sleep(backoff);
+				}
+			}
+		}
+
+		log.info("********** Created test database {} in {}ms", name, System.currentTimeMillis() - start);
+
+		final TestDatabase db = new TestDatabase(name);
+		all.add(db);
+		return db;
+	}
+
+	private void drop(final TestDatabase db) {
+		if (!all.remove(db))
+			return;
+
+		db.closeConnection();
+
+		try (final Connection conn = adminConnection()) {
+			// Whatever connection pool the test used is probably still holding connections
+			try (final PreparedStatement stmt = conn.prepareStatement("SELECT pg_terminate_backend(pid) FROM pg_stat_activity WHERE datname = ? AND pid <> pg_backend_pid()")) {
+				stmt.setString(1, db.name);
+				stmt.execute();
+			}
+			try (final Statement statement = conn.createStatement()) {
+				statement.execute("DROP DATABASE IF EXISTS " + db.name);
+			}
+		} catch (SQLException e) {
+			log.warn("Could not drop test database " + db.name, e);
+		}
+	}
+
+	/** Never the template itself, since any connection to it blocks everyone else's clones */
+	@SneakyThrows
+	private Connection adminConnection() {
+		Class.forName(Driver.class.getName());
+		return DriverManager.getConnection(withDatabaseName(template.getUrl(), MAINTENANCE_DATABASE), template.getUser(), template.getPassword());
+	}
+
+	/** The database name in either jdbc:postgresql:name or jdbc:postgresql://host:port/name?params */
+	static String databaseName(final String url) {
+		final String base = url.contains("?") ? url.substring(0, url.indexOf('?')) : url;
+		return base.substring(nameStart(base));
+	}
+
+	/** The same url with a different database name */
+	static String withDatabaseName(final String url, final String name) {
+		final int query = url.indexOf('?');
+		final String base = query < 0 ? url : url.substring(0, query);
+		final String params = query < 0 ? "" : url.substring(query);
+		return base.substring(0, nameStart(base)) + name + params;
+	}
+
+	private static int nameStart(final String base) {
+		return (base.startsWith("jdbc:postgresql://") ? base.lastIndexOf('/') : base.lastIndexOf(':')) + 1;
+	}
+
+	/**
+	 * One clone, which is a DatabaseConfig for it
+	 */
+	public class TestDatabase implements DatabaseConfig {
+		private final String name;
+		private final String url;
+
+		/** Kept open for resets; lazily created */
+		private Connection connection;
+		private String truncateStatement;
+
+		private TestDatabase(final String name) {
+			this.name = name;
+			this.url = withDatabaseName(template.getUrl(), name);
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public String getUrl() {
+			return url;
+		}
+
+		@Override
+		public String getUser() {
+			return template.getUser();
+		}
+
+		@Override
+		public String getPassword() {
+			return template.getPassword();
+		}
+
+		@Override
+		public Map<String, String> getProperties() {
+			return template.getProperties();
+		}
+
+		/**
+		 * Empty the database for the next test. With {@link Reset#RECLONE} there's no way to change the url
+		 * under a running test, so this truncates as well; use {@link #release(TestDatabase)} to get an exact
+		 * copy of the template.
+		 */
+		@SneakyThrows
+		public synchronized void reset() {
+			if (connection == null)
+				connection = DriverManager.getConnection(url, getUser(), getPassword());
+
+			if (truncateStatement == null)
+				truncateStatement = truncateStatement(connection);
+
+			if (truncateStatement.isEmpty())
+				return;
+
+			try (final Statement statement = connection.createStatement()) {
+				statement.execute(truncateStatement);
+			}
+		}
+
+		/** Tables are looked up once; tests that create tables should do so in the template */
+		private String truncateStatement(final Connection conn) throws SQLException {
+			final List<String> tables = new ArrayList<>();
+
+			try (final Statement statement = conn.createStatement();
+				 final ResultSet rs = statement.executeQuery("SELECT tablename FROM pg_tables WHERE schemaname = current_schema()")) {
+				while (rs.next()) {
+					if (!preservedTables.contains(rs.getString(1)))
+						tables.add('"' + rs.getString(1) + '"');
+				}
+			}
+
+			return tables.isEmpty() ? "" : "TRUNCATE " + Joiner.on(", ").join(tables) + " RESTART IDENTITY CASCADE";
+		}
+
+		private synchronized void closeConnection() {
+			if (connection != null) {
+				try {
+					connection.close();
+				} catch (SQLException e) {
+					log.debug("Error closing reset connection", e);
+				}
+				connection = null;
+			}
+		}
+	}
+}
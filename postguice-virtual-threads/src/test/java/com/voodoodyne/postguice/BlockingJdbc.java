@@ -0,0 +1,200 @@
+package com.voodoodyne.postguice;
+
+import org.hibernate.cfg.Environment;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * <p>JDBC stand-ins whose queries block for {@link #QUERY_MILLIS}ms, the way a real driver blocks on the socket.
+ * A virtual thread that blocks while holding a monitor is pinned to its carrier, so if anything between the
+ * caller and the "network" is synchronized, JFR sees it.</p>
+ *
+ * <p>A generate_series query returns as many rows as its second parameter asks for, anything else returns a
+ * single row. Values come from one shared counter, like a sequence.</p>
+ */
+public class BlockingJdbc {
+	public static final String URL = "jdbc:postguice-blocking:test";
+
+	public static final long QUERY_MILLIS = 2;
+
+	private static final AtomicLong COUNTER = new AtomicLong();
+
+	static {
+		try {
+			DriverManager.registerDriver(new Driver());
+		} catch (SQLException e) {
+			throw new ExceptionInInitializerError(e);
+		}
+	}
+
+	public static class Driver implements java.sql.Driver {
+		@Override
+		public Connection connect(final String url, final Properties info) {
+			return acceptsURL(url) ? connection() : null;
+		}
+
+		@Override
+		public boolean acceptsURL(final String url) {
+			return URL.equals(url);
+		}
+
+		@Override
+		public DriverPropertyInfo[] getPropertyInfo(final String url, final Properties info) {
+			return new DriverPropertyInfo[0];
+		}
+
+		@Override
+		public int getMajorVersion() {
+			return 1;
+		}
+
+		@Override
+		public int getMinorVersion() {
+			return 0;
+		}
+
+		@Override
+		public boolean jdbcCompliant() {
+			return false;
+		}
+
+		@Override
+		public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+			throw new SQLFeatureNotSupportedException();
+		}
+	}
+
+	/** Enough configuration for any of our connection providers; also registers the driver */
+	public static Map<String, Object> providerProperties() {
+		final Map<String, Object> props = new HashMap<>();
+		props.put(Environment.DRIVER, Driver.class.getName());
+		props.put(Environment.URL, URL);
+		props.put(Environment.USER, "test");
+		props.put(Environment.PASS, "test");
+		return props;
+	}
+
+	private static Connection connection() {
+		final Map<String, Object> state = new HashMap<>();
+		state.put("getAutoCommit", true);
+		state.put("getTransactionIsolation", Connection.TRANSACTION_READ_COMMITTED);
+		state.put("isReadOnly", false);
+		state.put("isClosed", false);
+
+		return proxy(Connection.class, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "setAutoCommit":
+				case "setTransactionIsolation":
+				case "setReadOnly":
+					state.put("get" + method.getName().substring(3), args[0]);
+					state.put("is" + method.getName().substring(3), args[0]);
+					return null;
+				case "getAutoCommit":
+				case "getTransactionIsolation":
+				case "isReadOnly":
+				case "isClosed":
+					return state.get(method.getName());
+				case "close":
+					state.put("isClosed", true);
+					return null;
+				case "isValid":
+					return !(Boolean)state.get("isClosed");
+				case "commit":
+				case "rollback":
+					Thread.sleep(QUERY_MILLIS);
+					return null;
+				case "createStatement":
+				case "prepareStatement":
+					return statement(args == null || args.length == 0 ? null : (String)args[0]);
+				default:
+					return null;
+			}
+		});
+	}
+
+	private static PreparedStatement statement(final String preparedSql) {
+		final Map<Integer, Object> params = new HashMap<>();
+
+		return proxy(PreparedStatement.class, (proxy, method, args) -> {
+			final String name = method.getName();
+
+			if (name.startsWith("set") && args != null && args.length >= 2 && args[0] instanceof Integer) {
+				params.put((Integer)args[0], args[1]);
+				return null;
+			}
+
+			switch (name) {
+				case "executeQuery":
+					Thread.sleep(QUERY_MILLIS);
+					final String sql = args == null ? preparedSql : (String)args[0];
+					return rows(sql.contains("generate_series") ? ((Number)params.get(2)).intValue() : 1);
+				case "execute":
+				case "executeUpdate":
+					Thread.sleep(QUERY_MILLIS);
+					return name.equals("execute") ? (Object)true : (Object)1;
+				default:
+					return null;
+			}
+		});
+	}
+
+	private static ResultSet rows(final int count) {
+		final int[] row = {0};
+		final long first = COUNTER.getAndAdd(count) + 1;
+
+		return proxy(ResultSet.class, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "next":
+					return ++row[0] <= count;
+				case "getLong":
+				case "getObject":
+					return first + row[0] - 1;
+				default:
+					return null;
+			}
+		});
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T proxy(final Class<T> iface, final InvocationHandler handler) {
+		return (T)Proxy.newProxyInstance(BlockingJdbc.class.getClassLoader(), new Class<?>[] { iface }, (proxy, method, args) -> {
+			switch (method.getName()) {
+				case "equals":
+					return proxy == args[0];
+				case "hashCode":
+					return System.identityHashCode(proxy);
+				case "toString":
+					return iface.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+			}
+
+			final Object result = handler.invoke(proxy, method, args);
+			return result == null ? defaultValue(method) : result;
+		});
+	}
+
+	private static Object defaultValue(final Method method) {
+		final Class<?> type = method.getReturnType();
+		if (type == boolean.class)
+			return false;
+		else if (type == int.class)
+			return 0;
+		else if (type == long.class)
+			return 0L;
+		else
+			return null;
+	}
+}
@@ -0,0 +1,38 @@
+package com.voodoodyne.postguice;
+
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.Id;
+import javax.persistence.Table;
+
+/**
+ * Entity for the transaction pinning test; ids come from the postguice Sequence, not hibernate's
+ * optimizers (which are synchronized around their database call)
+ */
+@Entity
+@Table(name = PinningThing.TABLE)
+public class PinningThing {
+	public static final String TABLE = "postguice_pinning_thing";
+
+	@Id
+	@GeneratedValue(generator = "pinning_seq")
+	@GenericGenerator(name = "pinning_seq", strategy = "com.voodoodyne.postguice.SequenceIdentifierGenerator",
+			parameters = @Parameter(name = SequenceIdentifierGenerator.SEQUENCE_NAME, value = TABLE + "_id_seq"))
+	private Long id;
+
+	private String name;
+
+	protected PinningThing() {
+	}
+
+	public PinningThing(final String name) {
+		this.name = name;
+	}
+
+	public Long getId() {
+		return id;
+	}
+}
@@ -0,0 +1,228 @@
+package com.voodoodyne.postguice;
+
+import com.google.inject.Guice;
+import com.google.inject.Injector;
+import com.google.inject.persist.PersistService;
+import com.voodoodyne.postguice.pool.PostguiceConnectionProvider;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * <p>Runs the blocking paths (waiting for a pooled connection, waiting for a sequence refill, waiting for the
+ * sequence connection) on far more virtual threads than there are carriers, and checks that JFR saw no
+ * {@value #PINNED} events. The JDBC stand-ins block on every query, so any monitor held around them shows up.</p>
+ *
+ * <p>The whole transaction path (PostguiceModule, guice-persist's unit of work, a hibernate session, pgjdbc) needs
+ * a real database, so that case only runs when {@value #DATABASE_URL} names one, eg
+ * {@code -Dpostguice.test.url=jdbc:postgresql://localhost/postgres}. {@value #DATABASE_USER} and
+ * {@value #DATABASE_PASSWORD} default to postgres and nothing. It creates and drops its own table.</p>
+ */
+class VirtualThreadPinningTest {
+	private static final String PINNED = "jdk.VirtualThreadPinned";
+
+	public static final String DATABASE_URL = "postguice.test.url";
+	public static final String DATABASE_USER = "postguice.test.user";
+	public static final String DATABASE_PASSWORD = "postguice.test.password";
+
+	private static final int TASKS = 200;
+
+	@Test
+	void detectsPinning() throws Exception {
+		final Object monitor = new Object();
+
+		final List<RecordedEvent> pinned = pinnedWhile(() -> {
+			synchronized (monitor) {
+				Thread.sleep(BlockingJdbc.QUERY_MILLIS);
+			}
+			return null;
+		});
+
+		assertFalse(pinned.isEmpty(), "JFR should report a virtual thread sleeping inside synchronized");
+	}
+
+	@Test
+	void poolDoesNotPin() throws Exception {
+		final PostguiceConnectionProvider pool = new PostguiceConnectionProvider();
+		pool.setMaxSize(4);
+		pool.configure(BlockingJdbc.providerProperties());
+
+		try {
+			assertNoPinning(() -> {
+				query(pool);
+				return null;
+			});
+		} finally {
+			pool.stop();
+		}
+	}
+
+	@Test
+	void sequenceConnectionDoesNotPin() throws Exception {
+		final SequenceConnectionProvider provider = new SequenceConnectionProvider(BlockingJdbc.providerProperties());
+
+		assertNoPinning(() -> {
+			query(provider);
+			return null;
+		});
+	}
+
+	@Test
+	void sequenceDoesNotPin() throws Exception {
+		final SequenceConnectionProvider provider = new SequenceConnectionProvider(BlockingJdbc.providerProperties());
+		final Sequence sequence = new Sequence("test_seq", 10) {
+			@Override
+			protected ConnectionProvider connectionProvider() {
+				return provider;
+			}
+		};
+
+		final Set<Long> seen = ConcurrentHashMap.newKeySet();
+
+		assertNoPinning(() -> {
+			for (int i = 0; i < 20; i++)
+				assertTrue(seen.add(sequence.next()), "duplicate sequence value");
+			return null;
+		});
+
+		assertEquals(TASKS * 20, seen.size());
+	}
+
+	@Test
+	void transactionsDoNotPin() throws Exception {
+		final String url = System.getProperty(DATABASE_URL);
+		assumeTrue(url != null, "Set -D" + DATABASE_URL + " to test the transaction path against a real database");
+
+		final DatabaseConfig cfg = new DatabaseConfig() {
+			@Override
+			public String getUrl() {
+				return url;
+			}
+
+			@Override
+			public String getUser() {
+				return System.getProperty(DATABASE_USER, "postgres");
+			}
+
+			@Override
+			public String getPassword() {
+				return System.getProperty(DATABASE_PASSWORD, "");
+			}
+
+			@Override
+			public Map<String, String> getProperties() {
+				return Collections.emptyMap();
+			}
+		};
+
+		final String sequence = PinningThing.TABLE + "_id_seq";
+
+		// Leftovers from an aborted run would otherwise fail the create
+		execute(cfg, "drop table if exists " + PinningThing.TABLE, "drop sequence if exists " + sequence,
+				"create table " + PinningThing.TABLE + " (id bigint primary key, name text)",
+				"create sequence " + sequence);
+
+		try {
+			final Injector injector = Guice.createInjector(new PostguiceModule(), binder -> binder.bind(DatabaseConfig.class).toInstance(cfg));
+			final PersistService persistService = injector.getInstance(PersistService.class);
+			persistService.start();
+
+			try {
+				final Callable<Void> task = () -> {
+					Transactions.transactInUnitOfWork(() -> {
+						EM.em().persist(new PinningThing("pinned?"));
+						EM.em().createQuery("select count(t) from PinningThing t", Long.class).getSingleResult();
+					});
+					return null;
+				};
+
+				// Class loading and hibernate's lazy initialization aren't what we're testing
+				task.call();
+
+				assertNoPinning(task);
+			} finally {
+				persistService.stop();
+			}
+		} finally {
+			execute(cfg, "drop table " + PinningThing.TABLE, "drop sequence " + sequence);
+		}
+	}
+
+	private static void execute(final DatabaseConfig cfg, final String... statements) throws SQLException {
+		try (final Connection connection = DriverManager.getConnection(cfg.getUrl(), cfg.getUser(), cfg.getPassword());
+			 final Statement statement = connection.createStatement()) {
+			for (final String sql : statements)
+				statement.execute(sql);
+		}
+	}
+
+	private static void query(final ConnectionProvider provider) throws Exception {
+		final Connection connection = provider.getConnection();
+		try (final PreparedStatement stmt = connection.prepareStatement("select 1");
+			 final ResultSet rs = stmt.executeQuery()) {
+			rs.next();
+		} finally {
+			provider.closeConnection(connection);
+		}
+	}
+
+	private static void assertNoPinning(final Callable<Void> task) throws Exception {
+		final List<RecordedEvent> pinned = pinnedWhile(task);
+		assertTrue(pinned.isEmpty(), () -> pinned.size() + " pinned virtual threads, first:\n" + pinned.get(0));
+	}
+
+	/** Run the task on {@value #TASKS} virtual threads at once, recording every pinning event */
+	private static List<RecordedEvent> pinnedWhile(final Callable<Void> task) throws Exception {
+		final Path file = Files.createTempFile("pinning", ".jfr");
+
+		try (final Recording recording = new Recording()) {
+			recording.enable(PINNED).withThreshold(Duration.ZERO).withStackTrace();
+			recording.start();
+
+			try (final ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+				final List<Future<Void>> futures = new ArrayList<>();
+				for (int i = 0; i < TASKS; i++)
+					futures.add(executor.submit(task));
+
+				for (final Future<Void> future : futures)
+					future.get();
+			}
+
+			recording.stop();
+			recording.dump(file);
+
+			return RecordingFile.readAllEvents(file).stream()
+					.filter(event -> event.getEventType().getName().equals(PINNED))
+					.toList();
+		} finally {
+			Files.deleteIfExists(file);
+		}
+	}
+}
@@ -2,16 +2,31 @@ package com.google.inject.persist.jpa;
 
 import com.google.inject.AbstractModule;
 import com.google.inject.Provides;
+import com.google.inject.persist.UnitOfWork;
 import com.voodoodyne.postguice.DatabaseConfig;
+import com.voodoodyne.postguice.IdentityGenerationCheck;
+import com.voodoodyne.postguice.pool.RoutingConnectionProvider;
+import com.voodoodyne.postguice.trace.TracingSessionListener;
+import com.voodoodyne.postguice.trace.TracingStatementInspector;
 import org.postgresql.Driver;
 
 import java.util.Map;
 import java.util.Properties;
 
+import static org.hibernate.cfg.AvailableSettings.AUTO_SESSION_EVENTS_LISTENER;
+import static org.hibernate.cfg.AvailableSettings.BATCH_VERSIONED_DATA;
+import static org.hibernate.cfg.AvailableSettings.CONNECTION_PREFIX;
+import static org.hibernate.cfg.AvailableSettings.CONNECTION_PROVIDER;
 import static org.hibernate.cfg.AvailableSettings.DRIVER;
+import static org.hibernate.cfg.AvailableSettings.ORDER_INSERTS;
+import static org.hibernate.cfg.AvailableSettings.ORDER_UPDATES;
 import static org.hibernate.cfg.AvailableSettings.PASS;
+import static org.hibernate.cfg.AvailableSettings.PREFERRED_POOLED_OPTIMIZER;
+import static org.hibernate.cfg.AvailableSettings.STATEMENT_BATCH_SIZE;
+import static org.hibernate.cfg.AvailableSettings.STATEMENT_INSPECTOR;
 import static org.hibernate.cfg.AvailableSettings.URL;
 import static org.hibernate.cfg.AvailableSettings.USER;
+import static org.hibernate.jpa.boot.internal.EntityManagerFactoryBuilderImpl.INTEGRATOR_PROVIDER;
 
 /**
  * This allows us to pull database config out of Guice instead of hardcoding it in the
@@ -21,12 +36,38 @@ import static org.hibernate.cfg.AvailableSettings.USER;
  * Note that this module needs to override the JpaPersistModule.
  */
 public class PostguiceBridgeModule extends AbstractModule {
+	/** JDBC batch size for the high-throughput profile */
+	public static final int BATCH_SIZE = 50;
+
+	private final boolean highThroughput;
+	private final boolean traced;
+
+	public PostguiceBridgeModule() {
+		this(false);
+	}
+
+	public PostguiceBridgeModule(final boolean highThroughput) {
+		this(highThroughput, false);
+	}
+
+	public PostguiceBridgeModule(final boolean highThroughput, final boolean traced) {
+		this.highThroughput = highThroughput;
+		this.traced = traced;
+	}
+
 	@Override
 	protected void configure() {
 	}
 
+	/** @return true if a unit of work is active on this thread; JpaPersistService doesn't expose this publicly */
+	public static boolean isWorking(final UnitOfWork unitOfWork) {
+		return ((JpaPersistService)unitOfWork).isWorking();
+	}
+
 	/**
 	 * Generate properties out of the database config. The DatabaseConfig must be provided by a user's configuration.
+	 * If there are replicas, the RoutingConnectionProvider is used unless some other provider was configured.
+	 * The high-throughput profile's and tracing's settings are likewise only defaults.
 	 */
 	@Provides
 	@Jpa
@@ -37,6 +78,33 @@ public class PostguiceBridgeModule extends AbstractModule {
 		props.setProperty(USER, cfg.getUser());
 		props.setProperty(PASS, cfg.getPassword());
 
+		if (highThroughput) {
+			props.setProperty(STATEMENT_BATCH_SIZE, String.valueOf(BATCH_SIZE));
+			props.setProperty(ORDER_INSERTS, "true");
+			props.setProperty(ORDER_UPDATES, "true");
+			props.setProperty(BATCH_VERSIONED_DATA, "true");
+			props.setProperty(CONNECTION_PREFIX + ".reWriteBatchedInserts", "true");
+			props.setProperty(PREFERRED_POOLED_OPTIMIZER, "pooled-lo");
+			props.setProperty(INTEGRATOR_PROVIDER, IdentityGenerationCheck.Provider.class.getName());
+		}
+
+		if (cfg.getPrepareThreshold() != null)
+			props.setProperty(CONNECTION_PREFIX + ".prepareThreshold", cfg.getPrepareThreshold().toString());
+		if (cfg.getPreparedStatementCacheQueries() != null)
+			props.setProperty(CONNECTION_PREFIX + ".preparedStatementCacheQueries", cfg.getPreparedStatementCacheQueries().toString());
+		if (cfg.getAutosave() != null)
+			props.setProperty(CONNECTION_PREFIX + ".autosave", cfg.getAutosave().value());
+
+		if (traced) {
+			props.setProperty(AUTO_SESSION_EVENTS_LISTENER, TracingSessionListener.class.getName());
+			props.setProperty(STATEMENT_INSPECTOR, TracingStatementInspector.class.getName());
+		}
+
+		if (!cfg.getReplicaUrls().isEmpty()) {
+			props.setProperty(CONNECTION_PROVIDER, RoutingConnectionProvider.class.getName());
+			props.setProperty(RoutingConnectionProvider.REPLICA_URLS, String.join(",", cfg.getReplicaUrls()));
+		}
+
 		props.putAll(cfg.getProperties());
 
 		return props;
@@ -0,0 +1,267 @@
+package com.voodoodyne.postguice;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.io.BaseEncoding;
+import com.voodoodyne.postguice.usertype.PostgresTextType;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * <p>Bulk writes with {@code COPY ... FROM STDIN}, which is an order of magnitude faster than inserting
+ * through hibernate or JDBC batches. Rows are encoded and sent in chunks as they are pulled from the
+ * iterator, so memory use is constant no matter how many rows there are.</p>
+ *
+ * <pre>
+ * {@code
+ *  BulkCopy.into("thing", Thing.class)
+ *      .column("id", Thing::getId)
+ *      .column("data", Thing::getData, new MapUserType())
+ *      .upsert("id")
+ *      .write(things);
+ * }
+ * </pre>
+ *
+ * <p>Columns are written in Postgres text format. Values are rendered with {@code toString()} except byte[]
+ * (as bytea), or through a usertype that implements {@link PostgresTextType} - that's how jsonb and array
+ * columns get the same conversion they have in entities.</p>
+ *
+ * <p>Plain mode copies straight into the table. Upsert mode copies into a temp table and then runs
+ * {@code INSERT ... ON CONFLICT}; the temp table has only the copied columns, so defaults apply only to
+ * rows actually inserted. The rows in a single write must not repeat a key, or Postgres will refuse
+ * to update the same row twice.</p>
+ *
+ * <p>Table and column names are quoted, so they are case-sensitive and may be reserved words; a table may be
+ * qualified with its schema, eg {@code "app.thing"}.</p>
+ *
+ * <p>This runs on the current session's connection in the current transaction, after flushing the session.
+ * It bypasses hibernate entirely, so entities already loaded in the session will not see the new data.</p>
+ */
+@Slf4j
+public class BulkCopy<T> {
+
+	/** Encoded rows are sent to the server when the buffer reaches this many chars */
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private static final String TEMP_TABLE_PREFIX = "postguice_bulk_copy_";
+
+	/** Numbers temp tables, so upserts sharing a transaction never collide even if one didn't clean up */
+	private static final AtomicLong TEMP_TABLES = new AtomicLong();
+
+	private static class Column<T> {
+		final String name;
+		final Function<T, ?> getter;
+		final PostgresTextType type;
+
+		Column(final String name, final Function<T, ?> getter, final PostgresTextType type) {
+			this.name = name;
+			this.getter = getter;
+			this.type = type;
+		}
+	}
+
+	private final String table;
+	private final List<Column<T>> columns = new ArrayList<>();
+
+	/** Null for a plain copy */
+	private List<String> conflictColumns;
+	private boolean updateOnConflict;
+
+	private BulkCopy(final String table) {
+		this.table = table;
+	}
+
+	/** Start describing a bulk write into the table; the class is just to help type inference */
+	public static <T> BulkCopy<T> into(final String table, final Class<T> rowClass) {
+		return new BulkCopy<>(table);
+	}
+
+	/** Add a column whose values are written with toString() */
+	public BulkCopy<T> column(final String name, final Function<T, ?> getter) {
+		return column(name, getter, null);
+	}
+
+	/** Add a column whose values are rendered by the usertype */
+	public BulkCopy<T> column(final String name, final Function<T, ?> getter, final PostgresTextType type) {
+		columns.add(new Column<>(name, getter, type));
+		return this;
+	}
+
+	/** On a conflict with the given unique columns, update every other column from the new row */
+	public BulkCopy<T> upsert(final String... conflictColumns) {
+		return onConflict(true, conflictColumns);
+	}
+
+	/** On a conflict with the given unique columns, keep the existing row */
+	public BulkCopy<T> ignoreConflicts(final String... conflictColumns) {
+		return onConflict(false, conflictColumns);
+	}
+
+	private BulkCopy<T> onConflict(final boolean update, final String... conflictColumns) {
+		Preconditions.checkArgument(conflictColumns.length > 0, "Need at least one conflict column");
+		this.conflictColumns = Arrays.asList(conflictColumns);
+		this.updateOnConflict = update;
+		return this;
+	}
+
+	/** @return the number of rows copied (for upserts, including rows that conflicted) */
+	public long write(final Stream<T> rows) {
+		return write(rows.iterator());
+	}
+
+	/** @return the number of rows copied (for upserts, including rows that conflicted) */
+	public long write(final Iterable<T> rows) {
+		return write(rows.iterator());
+	}
+
+	/** @return the number of rows copied (for upserts, including rows that conflicted) */
+	public long write(final Iterator<T> rows) {
+		Preconditions.checkState(!columns.isEmpty(), "No columns defined");
+		Transactions.checkInTransaction();
+
+		final Session session = EM.em().unwrap(Session.class);
+		session.flush();
+
+		return session.doReturningWork(connection -> {
+			if (conflictColumns == null)
+				return copy(connection, quoteTable(), rows);
+
+			final String tempTable = quote(TEMP_TABLE_PREFIX + TEMP_TABLES.incrementAndGet());
+
+			try (final Statement stmt = connection.createStatement()) {
+				// Only the copied columns, with no defaults or constraints, so serial defaults don't burn sequence values
+				stmt.execute("CREATE TEMP TABLE " + tempTable + " ON COMMIT DROP AS SELECT " + columnList() + " FROM " + quoteTable() + " WITH NO DATA");
+
+				final long count = copy(connection, tempTable, rows);
+				final int changed = stmt.executeUpdate(mergeStatement(tempTable));
+				log.debug("Upserted {} rows into {}, {} changed", count, table, changed);
+
+				// Temp tables last until commit; no need to keep this one around for a long transaction
+				stmt.execute("DROP TABLE " + tempTable);
+				return count;
+			}
+		});
+	}
+
+	private String columnList() {
+		return Joiner.on(", ").join(columns.stream().map(column -> quote(column.name)).iterator());
+	}
+
+	/** Quote each part of a possibly schema-qualified name */
+	private String quoteTable() {
+		return Joiner.on('.').join(Splitter.on('.').splitToList(table).stream().map(BulkCopy::quote).iterator());
+	}
+
+	private static String quote(final String identifier) {
+		return "\"" + identifier.replace("\"", "\"\"") + "\"";
+	}
+
+	private String mergeStatement(final String tempTable) {
+		final String columnList = columnList();
+
+		final StringBuilder sql = new StringBuilder()
+				.append("INSERT INTO ").append(quoteTable()).append(" (").append(columnList).append(")")
+				.append(" SELECT ").append(columnList).append(" FROM ").append(tempTable)
+				.append(" ON CONFLICT (").append(Joiner.on(", ").join(conflictColumns.stream().map(BulkCopy::quote).iterator())).append(")");
+
+		final List<String> updated = columns.stream()
+				.map(column -> column.name)
+				.filter(name -> !conflictColumns.contains(name))
+				.map(BulkCopy::quote)
+				.collect(Collectors.toList());
+
+		if (!updateOnConflict || updated.isEmpty()) {
+			sql.append(" DO NOTHING");
+		} else {
+			sql.append(" DO UPDATE SET ");
+			sql.append(Joiner.on(", ").join(updated.stream().map(name -> name + " = EXCLUDED." + name).iterator()));
+		}
+
+		return sql.toString();
+	}
+
+	private long copy(final Connection connection, final String target, final Iterator<T> rows) throws SQLException {
+		final CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI()
+				.copyIn("COPY " + target + " (" + columnList() + ") FROM STDIN");
+
+		try {
+			final StringBuilder chunk = new StringBuilder(CHUNK_SIZE + 1024);
+			final StringBuilder field = new StringBuilder();
+
+			while (rows.hasNext()) {
+				appendRow(rows.next(), chunk, field);
+
+				if (chunk.length() >= CHUNK_SIZE) {
+					send(copyIn, chunk);
+				}
+			}
+			send(copyIn, chunk);
+
+			return copyIn.endCopy();
+		} finally {
+			if (copyIn.isActive())
+				copyIn.cancelCopy();
+		}
+	}
+
+	private static void send(final CopyIn copyIn, final StringBuilder chunk) throws SQLException {
+		final byte[] bytes = chunk.toString().getBytes(StandardCharsets.UTF_8);
+		copyIn.writeToCopy(bytes, 0, bytes.length);
+		chunk.setLength(0);
+	}
+
+	private void appendRow(final T row, final StringBuilder out, final StringBuilder field) {
+		for (int i = 0; i < columns.size(); i++) {
+			if (i > 0)
+				out.append('\t');
+
+			final Column<T> column = columns.get(i);
+			final Object value = column.getter.apply(row);
+
+			if (value == null) {
+				out.append("\\N");
+			} else {
+				field.setLength(0);
+				if (column.type != null)
+					column.type.appendText(value, field);
+				else if (value instanceof byte[])
+					field.append("\\x").append(BaseEncoding.base16().lowerCase().encode((byte[])value));
+				else
+					field.append(value);
+
+				appendEscaped(field, out);
+			}
+		}
+		out.append('\n');
+	}
+
+	/** COPY text format treats backslash and the delimiters specially */
+	private static void appendEscaped(final CharSequence value, final StringBuilder out) {
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			switch (c) {
+				case '\\': out.append("\\\\"); break;
+				case '\t': out.append("\\t"); break;
+				case '\n': out.append("\\n"); break;
+				case '\r': out.append("\\r"); break;
+				default: out.append(c);
+			}
+		}
+	}
+}
@@ -1,5 +1,9 @@
 package com.voodoodyne.postguice;
 
+import org.postgresql.jdbc.AutoSave;
+
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -13,4 +17,48 @@ public interface DatabaseConfig {
 	String getPassword();
 
 	Map<String, String> getProperties();
+
+	/** @return the property parsed as an int, or the default if it isn't set */
+	default int getIntProperty(final String key, final int defaultValue) {
+		final Map<String, String> properties = getProperties();
+		final String value = properties == null ? null : properties.get(key);
+		return value == null ? defaultValue : Integer.parseInt(value);
+	}
+
+	/**
+	 * JDBC urls of streaming replicas, which must accept the same user and password. If there are any,
+	 * read-only transactions are routed to them; see {@link com.voodoodyne.postguice.pool.RoutingConnectionProvider}.
+	 */
+	default List<String> getReplicaUrls() {
+		return Collections.emptyList();
+	}
+
+	/**
+	 * pgjdbc's prepareThreshold: how many times a PreparedStatement runs before pgjdbc switches it to a named
+	 * server-side statement, which skips parsing and (usually) planning from then on. Null leaves the driver
+	 * default of 5; 1 prepares hot queries on first use, which pays off when the same few queries run constantly.
+	 */
+	default Integer getPrepareThreshold() {
+		return null;
+	}
+
+	/**
+	 * pgjdbc's preparedStatementCacheQueries: how many server-side prepared statements each connection keeps,
+	 * least recently used first out. The cache belongs to the physical connection, so it survives pooling.
+	 * Null leaves the driver default of 256; raise it if your app has more distinct hot queries than that.
+	 */
+	default Integer getPreparedStatementCacheQueries() {
+		return null;
+	}
+
+	/**
+	 * pgjdbc's autosave. With server-side prepared statements, a schema change that alters a query's result columns
+	 * fails the next execution on every connection with "cached plan must not change result type", which aborts the
+	 * transaction. CONSERVATIVE sets a savepoint before each statement (in the same round trip) and, for exactly
+	 * that failure, rolls back to it and re-prepares, so the transaction carries on. This covers every transaction,
+	 * not just ones run with {@code Transactions.transactRetrying()}. Null leaves the driver default of NEVER.
+	 */
+	default AutoSave getAutosave() {
+		return null;
+	}
 }
@@ -3,6 +3,7 @@ package com.voodoodyne.postguice;
 import javax.inject.Inject;
 import javax.inject.Provider;
 import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
 
 /**
  * <p>Because DI is not always the right idea.</p>
@@ -19,7 +20,15 @@ public class EM {
 	@Inject
 	static Provider<EntityManager> entityManagerProvider;
 
+	@Inject
+	static Provider<EntityManagerFactory> entityManagerFactoryProvider;
+
 	public static EntityManager em() {
 		return entityManagerProvider.get();
 	}
+
+	/** Unlike em(), this does not start a unit of work on the current thread */
+	public static EntityManagerFactory emf() {
+		return entityManagerFactoryProvider.get();
+	}
 }
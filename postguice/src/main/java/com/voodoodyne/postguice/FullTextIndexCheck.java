@@ -0,0 +1,98 @@
+package com.voodoodyne.postguice;
+
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * <p>Verifies at startup that every field you search with a {@link FullTextSearchFunction} has a GIN index the
+ * generated SQL can actually use, so a missing or mismatched index fails fast instead of turning into sequential
+ * scans in production.</p>
+ *
+ * <pre>
+ * {@code
+ *  new FullTextIndexCheck()
+ *      .expression("thing", "body", "simple")
+ *      .vector("document", "search_vector")
+ *      .verify();
+ * }
+ * </pre>
+ */
+@Slf4j
+public class FullTextIndexCheck {
+	/** Only tables in the schema unqualified names resolve to; partial indexes only serve queries that repeat their WHERE */
+	private static final String INDEX_QUERY = "select indexdef from pg_indexes where schemaname = current_schema() and tablename = ?"
+			+ " and indexdef ilike '%using gin%' and indexdef not ilike '% where %'";
+
+	private static class Expectation {
+		final String table;
+		final String column;
+		/** Normalized form of what must appear in the index definition */
+		final String expression;
+
+		Expectation(final String table, final String column, final String expression) {
+			this.table = table;
+			this.column = column;
+			this.expression = expression;
+		}
+	}
+
+	private final List<Expectation> expectations = new ArrayList<>();
+
+	/** Expect a GIN index on {@code to_tsvector('config', column)} */
+	public FullTextIndexCheck expression(final String table, final String column, final String config) {
+		expectations.add(new Expectation(table, column, normalize("to_tsvector('" + config + "', " + column + ")")));
+		return this;
+	}
+
+	/** Expect a GIN index on a tsvector column */
+	public FullTextIndexCheck vector(final String table, final String column) {
+		expectations.add(new Expectation(table, column, normalize("(" + column + ")")));
+		return this;
+	}
+
+	/**
+	 * Runs in its own transaction. Tables are looked up in the current schema, and partial indexes don't count.
+	 * @throws IllegalStateException listing every field without a usable index
+	 */
+	public void verify() {
+		final List<String> missing = Transactions.transactInUnitOfWork(() ->
+				EM.em().unwrap(Session.class).doReturningWork(connection -> {
+					final List<String> result = new ArrayList<>();
+
+					try (final PreparedStatement stmt = connection.prepareStatement(INDEX_QUERY)) {
+						for (final Expectation expectation : expectations) {
+							stmt.setString(1, expectation.table);
+
+							boolean found = false;
+							try (final ResultSet rs = stmt.executeQuery()) {
+								while (rs.next() && !found)
+									found = normalize(rs.getString(1)).contains(expectation.expression);
+							}
+
+							if (!found)
+								result.add(expectation.table + "." + expectation.column);
+						}
+					}
+
+					return result;
+				}));
+
+		Preconditions.checkState(missing.isEmpty(), "No usable GIN full text index for %s", missing);
+		log.info("Verified full text indexes for " + expectations.size() + " fields");
+	}
+
+	/** Postgres adds casts and parentheses when it stores an index definition; strip them for comparison */
+	private static String normalize(final String sql) {
+		return sql.toLowerCase()
+				.replaceAll("::\\w+", "")
+				.replaceAll("[\\s\"]", "")
+				.replaceAll("\\(\\(([^()]*)\\)\\)", "($1)")
+				.replaceAll(",\\(([^()]*)\\)\\)", ",$1)");
+	}
+}
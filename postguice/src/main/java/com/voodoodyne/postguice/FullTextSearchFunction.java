@@ -0,0 +1,127 @@
+package com.voodoodyne.postguice;
+
+import com.google.common.base.Preconditions;
+import org.hibernate.QueryException;
+import org.hibernate.dialect.function.SQLFunction;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.type.BooleanType;
+import org.hibernate.type.FloatType;
+import org.hibernate.type.Type;
+
+import java.util.List;
+
+/**
+ * <p>Full text search as an HQL function. Arguments are the field, the search query, and optionally the text
+ * search config (a string literal, eg {@code 'english'}), which defaults to the one given at construction.
+ * The SQL around the arguments is assembled once, up front.</p>
+ *
+ * <p>Postgres only uses an index if the SQL matches it exactly. For a {@link Target#EXPRESSION} field this renders
+ * {@code to_tsvector('config', field)}, which needs {@code CREATE INDEX ... USING gin (to_tsvector('config', field))}
+ * with the same config. A {@link Target#VECTOR} field is a stored or generated tsvector column and is used as is,
+ * which needs a plain GIN index on the column. {@link FullTextIndexCheck} can verify either at startup.</p>
+ *
+ * <p>Matching functions return a boolean (in HQL, {@code where fts(e.body, :q) = true}); ranking functions
+ * return {@code ts_rank}, so {@code order by fts_rank(e.body, :q) desc} with setMaxResults() gives the top hits.
+ * See {@link PostguicePostgreSQL96Dialect} for the registered names.</p>
+ */
+public class FullTextSearchFunction implements SQLFunction {
+
+	/** How the user's query text becomes a tsquery */
+	public enum Parser {
+		/** Raw tsquery syntax; malformed input is an error */
+		TO_TSQUERY("to_tsquery"),
+		/** Words are ANDed together; never a syntax error */
+		PLAINTO_TSQUERY("plainto_tsquery"),
+		/** Search-engine style, with quotes, OR and -; never a syntax error. Requires Postgres 11 */
+		WEBSEARCH_TO_TSQUERY("websearch_to_tsquery");
+
+		private final String function;
+
+		Parser(final String function) {
+			this.function = function;
+		}
+	}
+
+	/** What kind of field is searched */
+	public enum Target {
+		/** A text field, indexed with a GIN expression index on to_tsvector() */
+		EXPRESSION,
+		/** A tsvector column */
+		VECTOR
+	}
+
+	private final String defaultConfig;
+	private final Parser parser;
+	private final Target target;
+	private final boolean rank;
+
+	/** Everything but the arguments, for the usual case where the config isn't overridden */
+	private final String vectorPrefix;
+	private final String queryPrefix;
+
+	protected FullTextSearchFunction(final String defaultConfig, final Parser parser, final Target target, final boolean rank) {
+		this.defaultConfig = "'" + defaultConfig + "'";
+		this.parser = parser;
+		this.target = target;
+		this.rank = rank;
+
+		this.vectorPrefix = vectorPrefix(this.defaultConfig);
+		this.queryPrefix = queryPrefix(this.defaultConfig);
+	}
+
+	/** Matches rows; renders {@code vector @@ query} */
+	public static FullTextSearchFunction match(final String config, final Parser parser, final Target target) {
+		return new FullTextSearchFunction(config, parser, target, false);
+	}
+
+	/** Scores rows; renders {@code ts_rank(vector, query)} */
+	public static FullTextSearchFunction rank(final String config, final Parser parser, final Target target) {
+		return new FullTextSearchFunction(config, parser, target, true);
+	}
+
+	private String vectorPrefix(final String config) {
+		final String vector = target == Target.VECTOR ? "" : "to_tsvector(" + config + ", ";
+		return rank ? "ts_rank(" + vector : vector;
+	}
+
+	private String queryPrefix(final String config) {
+		final String close = target == Target.VECTOR ? "" : ")";
+		return close + (rank ? ", " : " @@ ") + parser.function + "(" + config + ", ";
+	}
+
+	@Override
+	public boolean hasArguments() {
+		return true;
+	}
+
+	@Override
+	public boolean hasParenthesesIfNoArguments() {
+		return false;
+	}
+
+	@Override
+	public Type getReturnType(final Type firstArgumentType, final Mapping mapping) throws QueryException {
+		return rank ? FloatType.INSTANCE : BooleanType.INSTANCE;
+	}
+
+	@Override
+	public String render(final Type firstArgumentType, final List arguments, final SessionFactoryImplementor factory) throws QueryException {
+		Preconditions.checkState(arguments.size() == 2 || arguments.size() == 3,
+				"The function must be passed 2 or 3 arguments: field, query, [config]");
+
+		final String field = (String)arguments.get(0);
+		final String query = (String)arguments.get(1);
+
+		final String configOverride = arguments.size() == 3 ? (String)arguments.get(2) : null;
+		final boolean defaulted = configOverride == null || configOverride.equals(defaultConfig);
+
+		return new StringBuilder()
+				.append(defaulted ? vectorPrefix : vectorPrefix(configOverride))
+				.append(field)
+				.append(defaulted ? queryPrefix : queryPrefix(configOverride))
+				.append(query)
+				.append(rank ? "))" : ")")
+				.toString();
+	}
+}
@@ -0,0 +1,56 @@
+package com.voodoodyne.postguice;
+
+import org.hibernate.HibernateException;
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.id.IdentityGenerator;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.jpa.boot.spi.IntegratorProvider;
+import org.hibernate.mapping.PersistentClass;
+import org.hibernate.mapping.RootClass;
+import org.hibernate.mapping.SimpleValue;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * <p>Refuses to start if any entity uses IDENTITY id generation. Hibernate has to execute an identity insert
+ * immediately to learn the id, so it silently disables JDBC batching for those entities - which defeats the
+ * point of the high-throughput profile. Use a sequence instead.</p>
+ *
+ * <p>Installed by {@code PostguiceModule.highThroughput()} through {@link Provider}.</p>
+ */
+public class IdentityGenerationCheck implements Integrator {
+
+	/** For the hibernate.integrator_provider setting */
+	public static class Provider implements IntegratorProvider {
+		@Override
+		public List<Integrator> getIntegrators() {
+			return Collections.singletonList(new IdentityGenerationCheck());
+		}
+	}
+
+	@Override
+	public void integrate(final Metadata metadata, final SessionFactoryImplementor sessionFactory, final SessionFactoryServiceRegistry serviceRegistry) {
+		// Persisters don't exist yet at this point, so look at the mappings
+		final List<String> offenders = metadata.getEntityBindings().stream()
+				.filter(entity -> entity instanceof RootClass && entity.getIdentifier() instanceof SimpleValue)
+				.filter(entity -> isIdentity(((SimpleValue)entity.getIdentifier()).getIdentifierGeneratorStrategy()))
+				.map(PersistentClass::getEntityName)
+				.sorted()
+				.collect(Collectors.toList());
+
+		if (!offenders.isEmpty())
+			throw new HibernateException("IDENTITY id generation disables JDBC batching; use a sequence for " + offenders);
+	}
+
+	private static boolean isIdentity(final String strategy) {
+		return "identity".equals(strategy) || IdentityGenerator.class.getName().equals(strategy);
+	}
+
+	@Override
+	public void disintegrate(final SessionFactoryImplementor sessionFactory, final SessionFactoryServiceRegistry serviceRegistry) {
+	}
+}
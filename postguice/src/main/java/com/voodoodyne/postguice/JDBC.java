@@ -3,12 +3,21 @@
 
 package com.voodoodyne.postguice;
 
+import com.google.common.base.Preconditions;
 import lombok.SneakyThrows;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.hibernate.Session;
 
 import javax.persistence.Query;
 import java.sql.Array;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Utilities for working with JDBC
@@ -23,4 +32,73 @@ public class JDBC
 		return query.unwrap(Session.class)
 				.doReturningWork(connection -> connection.createArrayOf("text", values.toArray(new String[values.size()])));
 	}
+
+	/**
+	 * <p>Stream query results through a server-side cursor, fetching {@code fetchSize} rows at a time, so
+	 * memory use stays flat however many rows there are. Rows are pulled from the database only as the stream
+	 * is consumed. The session is flushed before the query runs and cleared every {@code fetchSize} rows, which
+	 * detaches everything in it, including eagerly fetched associations and anything loaded before the stream
+	 * (evicting each row would miss the associations). Don't hold on to entities expecting changes to be flushed,
+	 * and don't interleave other work with the session while streaming.</p>
+	 *
+	 * <p>Postgres only uses a cursor when autocommit is off, so this must be called in a transaction, and the
+	 * stream must be consumed before it ends. Close the stream (try-with-resources) to release the cursor early.
+	 * Queries that select a single thing produce that thing; otherwise each element is an Object[].
+	 * Don't join fetch collections; the rows of one entity would be split across elements.</p>
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> Stream<T> stream(final Query query, final int fetchSize) {
+		Preconditions.checkArgument(fetchSize > 0, "fetchSize must be positive or the driver will read everything");
+		Transactions.checkInTransaction();
+
+		final Session session = query.unwrap(Session.class);
+		// Pending changes would otherwise be thrown away by the first clear
+		session.flush();
+
+		final ScrollableResults results = query.unwrap(org.hibernate.query.Query.class)
+				.setFetchSize(fetchSize)
+				.scroll(ScrollMode.FORWARD_ONLY);
+
+		final Iterator<T> iterator = new Iterator<T>() {
+			private int rows;
+			private Boolean hasNext;
+
+			@Override
+			public boolean hasNext() {
+				if (hasNext == null) {
+					// The caller has asked for more, so it is done with the rows so far
+					if (rows == fetchSize) {
+						session.clear();
+						rows = 0;
+					}
+
+					hasNext = results.next();
+				}
+
+				return hasNext;
+			}
+
+			@Override
+			public T next() {
+				if (!hasNext())
+					throw new NoSuchElementException();
+
+				hasNext = null;
+				rows++;
+				final Object[] row = results.get();
+				return (T)(row.length == 1 ? row[0] : row);
+			}
+		};
+
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+				.onClose(results::close);
+	}
+
+	/**
+	 * @return a builder for a COPY-based bulk write into the table, on the current session's connection
+	 * @see BulkCopy
+	 */
+	public static <T> BulkCopy<T> bulkCopy(final String table, final Class<T> rowClass) {
+		return BulkCopy.into(table, rowClass);
+	}
 }
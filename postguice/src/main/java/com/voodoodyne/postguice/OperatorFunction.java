@@ -0,0 +1,90 @@
+package com.voodoodyne.postguice;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Preconditions;
+import org.hibernate.QueryException;
+import org.hibernate.dialect.function.SQLFunction;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.type.BooleanType;
+import org.hibernate.type.Type;
+
+import java.util.List;
+
+/**
+ * <p>Exposes a boolean Postgres operator as an HQL function, eg {@code jsonb_contains(e.data, :json)} renders
+ * {@code (e.data @> cast(? as jsonb))}. The functions that Postgres provides under the same names can't use an
+ * index; the operators can use a GIN index on the column, eg {@code CREATE INDEX ... USING gin (data)}
+ * (or {@code gin (data jsonb_path_ops)}, which supports only {@code @>} and {@code @?} but is smaller and faster).</p>
+ *
+ * <p>The first argument is the column. For operators that take an array, every remaining argument is an element;
+ * a collection-valued parameter is expanded into elements by hibernate, so {@code array_overlaps(e.tags, :tags)}
+ * works with a List. Otherwise there must be exactly one more argument.</p>
+ *
+ * <p>pgjdbc reads {@code ?} as a parameter placeholder, so it's escaped as {@code ??} in operators.
+ * See {@link PostguicePostgreSQL96Dialect} for the registered names.</p>
+ */
+public class OperatorFunction implements SQLFunction {
+
+	private final String operator;
+	/** Null if the right operand is a single value */
+	private final String arrayType;
+	/** Null if the right operand isn't cast */
+	private final String castType;
+
+	protected OperatorFunction(final String operator, final String arrayType, final String castType) {
+		this.operator = " " + operator.replace("?", "??") + " ";
+		this.arrayType = arrayType;
+		this.castType = castType;
+	}
+
+	/** {@code column operator cast(value as castType)} */
+	public static OperatorFunction value(final String operator, final String castType) {
+		return new OperatorFunction(operator, null, castType);
+	}
+
+	/** {@code column operator value} */
+	public static OperatorFunction value(final String operator) {
+		return new OperatorFunction(operator, null, null);
+	}
+
+	/** {@code column operator cast(array[values...] as arrayType)} */
+	public static OperatorFunction array(final String operator, final String arrayType) {
+		return new OperatorFunction(operator, arrayType, null);
+	}
+
+	@Override
+	public boolean hasArguments() {
+		return true;
+	}
+
+	@Override
+	public boolean hasParenthesesIfNoArguments() {
+		return false;
+	}
+
+	@Override
+	public Type getReturnType(final Type firstArgumentType, final Mapping mapping) throws QueryException {
+		return BooleanType.INSTANCE;
+	}
+
+	@Override
+	public String render(final Type firstArgumentType, final List arguments, final SessionFactoryImplementor factory) throws QueryException {
+		final StringBuilder sql = new StringBuilder().append('(').append(arguments.get(0)).append(operator);
+
+		if (arrayType != null) {
+			Preconditions.checkState(arguments.size() >= 2, "The function must be passed a field and at least one value");
+			sql.append("cast(array[");
+			Joiner.on(", ").appendTo(sql, arguments.subList(1, arguments.size()));
+			sql.append("] as ").append(arrayType).append(')');
+		} else {
+			Preconditions.checkState(arguments.size() == 2, "The function must be passed 2 arguments: field, value");
+			if (castType != null)
+				sql.append("cast(").append(arguments.get(1)).append(" as ").append(castType).append(')');
+			else
+				sql.append(arguments.get(1));
+		}
+
+		return sql.append(')').toString();
+	}
+}
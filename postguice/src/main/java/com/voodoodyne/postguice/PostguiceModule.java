@@ -4,8 +4,11 @@ import com.google.inject.AbstractModule;
 import com.google.inject.persist.jpa.JpaPersistModule;
 import com.google.inject.persist.jpa.PostguiceBridgeModule;
 import com.google.inject.util.Modules;
+import com.voodoodyne.postguice.trace.TraceSink;
+import com.voodoodyne.postguice.trace.Tracing;
+import com.voodoodyne.postguice.usertype.JSONUserType;
+import lombok.AllArgsConstructor;
 import lombok.EqualsAndHashCode;
-import lombok.RequiredArgsConstructor;
 
 /**
  * <p>This module provides a little bit of glue between guice-persist and the rest of gwizard.
@@ -16,23 +19,55 @@ import lombok.RequiredArgsConstructor;
  * file in the same jar that has your entity classes. However, this can be a minimal skeleton
  * file which contains only the &lt;provider&gt; definition of org.hibernate.jpa.HibernatePersistenceProvider.
  * See the gwizard-example application for a demonstration.</p>
+ *
+ * <p>{@link #highThroughput()} turns on JDBC batching and everything it needs to actually happen:
+ * batched, ordered inserts and updates, pgjdbc's multi-row insert rewriting, and pooled-lo sequence
+ * allocation. Startup fails if any entity uses IDENTITY ids, which would quietly disable batching.
+ * Anything in {@code DatabaseConfig.getProperties()} still wins.</p>
+ *
+ * <p>{@link #traced()} measures every transaction started through {@link Transactions} and reports to the
+ * bound {@link TraceSink}; see {@link Tracing}.</p>
+ *
+ * <p>JSON usertypes convert through whatever {@link com.voodoodyne.postguice.usertype.JsonCodec} is bound,
+ * Jackson by default.</p>
  */
-@RequiredArgsConstructor
+@AllArgsConstructor
 @EqualsAndHashCode(callSuper=false)	// makes installation of this module idempotent
 public class PostguiceModule extends AbstractModule {
 
 	private final String persistenceUnitName;
+	private final boolean highThroughput;
+	private final boolean traced;
 
 	/** Assume a default persistence unit name of "persistence-unit" */
 	public PostguiceModule() {
 		this("persistence-unit");
 	}
 
+	public PostguiceModule(final String persistenceUnitName) {
+		this(persistenceUnitName, false, false);
+	}
+
+	/** @return this module with the high-throughput batching profile turned on */
+	public PostguiceModule highThroughput() {
+		return new PostguiceModule(persistenceUnitName, true, traced);
+	}
+
+	/** @return this module with transaction tracing turned on */
+	public PostguiceModule traced() {
+		return new PostguiceModule(persistenceUnitName, highThroughput, true);
+	}
+
 	@Override
 	protected void configure() {
-		install(Modules.override(new JpaPersistModule(persistenceUnitName)).with(new PostguiceBridgeModule()));
+		install(Modules.override(new JpaPersistModule(persistenceUnitName)).with(new PostguiceBridgeModule(highThroughput, traced)));
 
 		requestStaticInjection(EM.class);
 		requestStaticInjection(Transactions.class);
+		requestStaticInjection(SequenceIdentifierGenerator.class);
+		requestStaticInjection(JSONUserType.class);
+
+		if (traced)
+			requestStaticInjection(Tracing.class);
 	}
 }
@@ -1,14 +1,63 @@
 package com.voodoodyne.postguice;
 
+import com.voodoodyne.postguice.FullTextSearchFunction.Parser;
+import com.voodoodyne.postguice.FullTextSearchFunction.Target;
 import org.hibernate.dialect.PostgreSQL95Dialect;
 
 import java.sql.Types;
 
 /**
- * Apparently hibernate's 9.5 dialect doesn't support jsonb. Weird.
+ * <p>Apparently hibernate's 9.5 dialect doesn't support jsonb. Weird.</p>
+ *
+ * <p>Also registers full text search functions (see {@link FullTextSearchFunction}). All take
+ * {@code (field, query[, config])}, default to the 'simple' config, and parse queries with plainto_tsquery,
+ * which works on any Postgres this dialect supports:</p>
+ *
+ * <ul>
+ *     <li>{@code fts} - match a text field through a to_tsvector() expression index</li>
+ *     <li>{@code fts_rank} - ts_rank of a text field</li>
+ *     <li>{@code fts_vector} - match a tsvector column</li>
+ *     <li>{@code fts_vector_rank} - ts_rank of a tsvector column</li>
+ * </ul>
+ *
+ * <p>Each has a {@code _websearch} variant ({@code fts_websearch}, {@code fts_rank_websearch},
+ * {@code fts_vector_websearch}, {@code fts_vector_rank_websearch}) that parses queries with websearch_to_tsquery
+ * instead, which understands quotes, OR, and -. That function only exists in Postgres 11+.</p>
+ *
+ * <p>And operators that can use a GIN index (see {@link OperatorFunction}), all taking {@code (field, value)}:</p>
+ *
+ * <ul>
+ *     <li>{@code jsonb_contains} - {@code @>}, the value is a JSON string or a jsonb-typed parameter</li>
+ *     <li>{@code jsonb_exists} - {@code ?}, the value is a top level key or array element</li>
+ *     <li>{@code jsonb_exists_any}, {@code jsonb_exists_all} - {@code ?|} and {@code ?&amp;},
+ *         taking any number of values or a collection parameter</li>
+ *     <li>{@code jsonb_path_exists} - {@code @?}, the value is a jsonpath (Postgres 12+); errors in the
+ *         path expression are suppressed, as with the silent flag of the Postgres function</li>
+ *     <li>{@code array_overlaps}, {@code array_contains} - {@code &amp;&amp;} and {@code @>} against a text[]
+ *         column (eg {@link com.voodoodyne.postguice.usertype.TextArrayUserType}), taking any number of values
+ *         or a collection parameter</li>
+ * </ul>
  */
 public class PostguicePostgreSQL96Dialect extends PostgreSQL95Dialect {
 	public PostguicePostgreSQL96Dialect() {
 		this.registerColumnType(Types.JAVA_OBJECT, "jsonb");
+
+		this.registerFunction("fts", FullTextSearchFunction.match("simple", Parser.PLAINTO_TSQUERY, Target.EXPRESSION));
+		this.registerFunction("fts_rank", FullTextSearchFunction.rank("simple", Parser.PLAINTO_TSQUERY, Target.EXPRESSION));
+		this.registerFunction("fts_vector", FullTextSearchFunction.match("simple", Parser.PLAINTO_TSQUERY, Target.VECTOR));
+		this.registerFunction("fts_vector_rank", FullTextSearchFunction.rank("simple", Parser.PLAINTO_TSQUERY, Target.VECTOR));
+
+		this.registerFunction("fts_websearch", FullTextSearchFunction.match("simple", Parser.WEBSEARCH_TO_TSQUERY, Target.EXPRESSION));
+		this.registerFunction("fts_rank_websearch", FullTextSearchFunction.rank("simple", Parser.WEBSEARCH_TO_TSQUERY, Target.EXPRESSION));
+		this.registerFunction("fts_vector_websearch", FullTextSearchFunction.match("simple", Parser.WEBSEARCH_TO_TSQUERY, Target.VECTOR));
+		this.registerFunction("fts_vector_rank_websearch", FullTextSearchFunction.rank("simple", Parser.WEBSEARCH_TO_TSQUERY, Target.VECTOR));
+
+		this.registerFunction("jsonb_contains", OperatorFunction.value("@>", "jsonb"));
+		this.registerFunction("jsonb_exists", OperatorFunction.value("?"));
+		this.registerFunction("jsonb_exists_any", OperatorFunction.array("?|", "text[]"));
+		this.registerFunction("jsonb_exists_all", OperatorFunction.array("?&", "text[]"));
+		this.registerFunction("jsonb_path_exists", OperatorFunction.value("@?", "jsonpath"));
+		this.registerFunction("array_overlaps", OperatorFunction.array("&&", "text[]"));
+		this.registerFunction("array_contains", OperatorFunction.array("@>", "text[]"));
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,29 @@
+package com.voodoodyne.postguice;
+
+import lombok.Value;
+import lombok.With;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * How {@link Transactions#transactRetrying(RetryPolicy, java.util.concurrent.Callable)} retries serialization
+ * failures and deadlocks. Backoff is exponential with full jitter: before retry n, sleep a random time between
+ * zero and {@code min(maxBackoffMillis, initialBackoffMillis * 2^(n-1))}, so contending transactions spread out
+ * instead of colliding again in lockstep.
+ */
+@Value
+@With
+public class RetryPolicy {
+	public static final RetryPolicy DEFAULT = new RetryPolicy(5, 10, 1000);
+
+	/** Total attempts, including the first */
+	int maxAttempts;
+	long initialBackoffMillis;
+	long maxBackoffMillis;
+
+	/** @return how long to sleep before the given retry (1 for the first retry) */
+	public long backoffMillis(final int retry) {
+		final long ceiling = Math.min(maxBackoffMillis, initialBackoffMillis << Math.min(retry - 1, 30));
+		return ceiling <= 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+}
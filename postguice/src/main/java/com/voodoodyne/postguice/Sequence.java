@@ -1,49 +1,332 @@
 package com.voodoodyne.postguice;
 
-import lombok.RequiredArgsConstructor;
+import com.google.common.base.Preconditions;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.Getter;
 import lombok.SneakyThrows;
-import org.hibernate.Session;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
 
 import javax.inject.Singleton;
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.util.ArrayDeque;
-import java.util.Queue;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
- * Singleton which will efficiently batch sequence values so most calls do not require database hits
+ * <p>Singleton which will efficiently batch sequence values so most calls do not require database hits.</p>
+ *
+ * <p>Values are handed out of a block of primitive longs with a single atomic increment; there is no lock.
+ * When a quarter of a block remains, the next block is fetched in the background, so callers only
+ * wait on the database if they drain a block faster than it can be refilled.</p>
+ *
+ * <p>Refills run in autocommit on a single connection of their own, opened outside the pool and shared by
+ * all sequences (see {@link SequenceConnectionProvider}), so they never touch the caller's EntityManager or
+ * transaction and work without a unit of work. The caller usually holds a pooled connection while it waits
+ * for a refill, so refilling from the pool could deadlock once every pooled connection is held by a waiting
+ * caller. The cost is one connection beyond the pool's maximum; if the database refuses it, {@link #next()}
+ * throws the SQLException.</p>
+ *
+ * <p>An {@link #adaptive(String, int, int)} sequence sizes each batch from how fast the previous one was
+ * consumed, aiming for roughly one refill per second. Usually you want these from the {@link SequenceRegistry}.</p>
  */
 @Singleton
-@RequiredArgsConstructor
 public class Sequence {
+	/** Shared by all sequences; refills are short and infrequent */
+	private static final ExecutorService REFILL_EXECUTOR = Executors.newCachedThreadPool(
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("postguice-sequence-%d").build());
+
+	private static final String SERIES_QUERY = "select nextval(?::regclass) from generate_series(1, ?)";
+	private static final String NEXTVAL_QUERY = "select nextval(?::regclass)";
+	private static final String INCREMENT_QUERY = "select seqincrement from pg_sequence where seqrelid = ?::regclass";
+
+	/** Adaptive sequences aim to refill about this often */
+	private static final long TARGET_REFILL_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	/** How a batch is pulled out of the database */
+	public enum Strategy {
+		/** Works with any sequence; one statement returning batchSize rows */
+		SERIES,
+
+		/**
+		 * Requires the sequence to be declared with {@code INCREMENT BY batchSize} (Postgres 10+). A single nextval
+		 * reserves the whole range {@code [value, value + batchSize)}. This is the same "pooled-lo" layout Hibernate uses.
+		 */
+		INCREMENT
+	}
+
+	/** A fetched batch of values, and (eventually) the batch that follows it */
+	private static class Block {
+		final long[] values;
+		/** When a caller takes this index, start fetching the successor */
+		final int prefetchAt;
+		/** When this became the current block; zero until then, and then the rate isn't measured */
+		volatile long installedAt;
+		final AtomicInteger cursor = new AtomicInteger();
+		final AtomicReference<CompletableFuture<Block>> successor = new AtomicReference<>();
+
+		Block(final long[] values) {
+			this.values = values;
+			this.prefetchAt = Math.max(0, values.length - 1 - values.length / 4);
+		}
+
+		int remaining() {
+			return Math.max(0, values.length - cursor.get());
+		}
+	}
+
+	@Getter
 	private final String name;
-	private final int batchSize;
+	private final Strategy strategy;
+	private final int minBatchSize;
+	private final int maxBatchSize;
+
+	/** Size of the next batch to fetch; only changes for adaptive sequences */
+	private volatile int batchSize;
+
+	private final AtomicReference<Block> current = new AtomicReference<>(new Block(new long[0]));
+
+	/** Resolved on first refill */
+	private volatile ConnectionProvider connectionProvider;
+
+	/** Only checked once, for the INCREMENT strategy */
+	private volatile boolean incrementVerified;
+
+	private final AtomicLong refillCount = new AtomicLong();
+	private final AtomicLong refillNanos = new AtomicLong();
+	private final AtomicLong refillNanosMax = new AtomicLong();
+	private final AtomicLong fetched = new AtomicLong();
+	private volatile double allocationRate;
+
+	/** A fixed batch size, fetched with generate_series */
+	public Sequence(final String name, final int batchSize) {
+		this(name, batchSize, Strategy.SERIES);
+	}
+
+	/** A fixed batch size */
+	public Sequence(final String name, final int batchSize, final Strategy strategy) {
+		this(name, strategy, batchSize, batchSize);
+	}
 
-	private final Queue<Long> pending = new ArrayDeque<>();
+	private Sequence(final String name, final Strategy strategy, final int minBatchSize, final int maxBatchSize) {
+		Preconditions.checkArgument(minBatchSize > 0, "batch size must be positive");
+		Preconditions.checkArgument(minBatchSize <= maxBatchSize, "minBatchSize must not exceed maxBatchSize");
+		Preconditions.checkArgument(strategy == Strategy.SERIES || minBatchSize == maxBatchSize, "Only SERIES sequences can vary their batch size");
+
+		this.name = name;
+		this.strategy = strategy;
+		this.minBatchSize = minBatchSize;
+		this.maxBatchSize = maxBatchSize;
+		this.batchSize = minBatchSize;
+	}
+
+	/**
+	 * A sequence fetched with generate_series whose batch size floats between the bounds. Bigger batches at peak
+	 * mean fewer refills; smaller batches when idle mean fewer values thrown away at shutdown.
+	 */
+	public static Sequence adaptive(final String name, final int minBatchSize, final int maxBatchSize) {
+		return new Sequence(name, Strategy.SERIES, minBatchSize, maxBatchSize);
+	}
 
 	/** Get the next sequence, possibly filling the batch */
-	public synchronized long next() {
-		if (pending.isEmpty()) {
-			addBatch();
+	public long next() {
+		while (true) {
+			final Block block = current.get();
+			final int index = block.cursor.getAndIncrement();
+
+			if (index < block.values.length) {
+				// Exactly one caller sees this index, so exactly one caller kicks off the prefetch
+				if (index == block.prefetchAt) {
+					successorOf(block);
+				}
+
+				return block.values[index];
+			}
+
+			advance(block);
 		}
+	}
+
+	/** @return a point-in-time view of this sequence's behavior */
+	public SequenceStats stats() {
+		final Block block = current.get();
+		final CompletableFuture<Block> successor = block.successor.get();
 
-		return pending.remove();
+		long unused = block.remaining();
+		if (successor != null && successor.isDone() && !successor.isCompletedExceptionally())
+			unused += successor.join().remaining();
+
+		final long fetchedNow = fetched.get();
+		final long refills = refillCount.get();
+
+		return new SequenceStats(
+				name,
+				batchSize,
+				refills,
+				refills == 0 ? 0 : refillNanos.get() / refills,
+				refillNanosMax.get(),
+				fetchedNow - unused,
+				unused,
+				allocationRate);
 	}
 
+	/** The block is exhausted; wait for its successor and install it */
 	@SneakyThrows
-	private void addBatch() {
-		final String query = "select nextval('" + name + "') from generate_series(1, " + batchSize + ")";
-
-		final Session session = EM.em().unwrap(Session.class);
-		session.doWork(connection -> {
-			try (final PreparedStatement stmt = connection.prepareStatement(query)) {
-				try (final ResultSet rs = stmt.executeQuery()) {
-					while (rs.next()) {
-						final long value = rs.getLong(1);
-						pending.add(value);
-					}
-				}
+	private void advance(final Block block) {
+		final CompletableFuture<Block> future = successorOf(block);
+		try {
+			final Block next = future.join();
+			// A prefetched block can sit idle for a long time; consumption starts when it's installed
+			if (current.compareAndSet(block, next))
+				next.installedAt = System.nanoTime();
+		} catch (CompletionException e) {
+			// Let the next caller try again rather than caching the failure forever
+			block.successor.compareAndSet(future, null);
+			throw e.getCause();
+		}
+	}
+
+	/** Get the future for the block after this one, starting the fetch if nobody has yet */
+	private CompletableFuture<Block> successorOf(final Block block) {
+		final CompletableFuture<Block> existing = block.successor.get();
+		if (existing != null)
+			return existing;
+
+		final CompletableFuture<Block> future = new CompletableFuture<>();
+		if (!block.successor.compareAndSet(null, future))
+			return block.successor.get();
+
+		REFILL_EXECUTOR.execute(() -> {
+			try {
+				future.complete(new Block(refill(block)));
+			} catch (Throwable t) {
+				future.completeExceptionally(t);
 			}
 		});
+
+		return future;
+	}
+
+	/** Fetch the block after the given one, adjusting the batch size and recording metrics */
+	private long[] refill(final Block previous) throws SQLException {
+		final long start = System.nanoTime();
+
+		if (previous.values.length > 0 && previous.installedAt != 0) {
+			final double rate = (double)previous.prefetchAt * TimeUnit.SECONDS.toNanos(1) / Math.max(1, start - previous.installedAt);
+			allocationRate = rate;
+
+			if (minBatchSize != maxBatchSize) {
+				final long wanted = (long)(rate * TARGET_REFILL_INTERVAL_NANOS / TimeUnit.SECONDS.toNanos(1));
+				batchSize = (int)Math.max(minBatchSize, Math.min(maxBatchSize, wanted));
+			}
+		}
+
+		final long[] values = fetch(batchSize);
+
+		final long elapsed = System.nanoTime() - start;
+		refillCount.incrementAndGet();
+		refillNanos.addAndGet(elapsed);
+		refillNanosMax.accumulateAndGet(elapsed, Math::max);
+		fetched.addAndGet(values.length);
+
+		return values;
+	}
+
+	/**
+	 * Where refills get their connections; by default, a dedicated connection to the injected EntityManagerFactory's
+	 * database. Overriding this with a pooled provider risks the deadlock described above.
+	 */
+	protected ConnectionProvider connectionProvider() {
+		if (connectionProvider == null) {
+			connectionProvider = SequenceConnectionProvider.forFactory(EM.emf().unwrap(SessionFactoryImplementor.class));
+		}
+
+		return connectionProvider;
+	}
+
+	/** Fetch a batch on a connection of our own, in autocommit, independent of whatever the caller is doing */
+	private long[] fetch(final int size) throws SQLException {
+		final ConnectionProvider provider = connectionProvider();
+		final Connection connection = provider.getConnection();
+		try {
+			final boolean autoCommit = connection.getAutoCommit();
+			if (!autoCommit)
+				connection.setAutoCommit(true);
+
+			try {
+				return strategy == Strategy.INCREMENT ? fetchIncrement(connection, size) : fetchSeries(connection, size);
+			} finally {
+				if (!autoCommit)
+					connection.setAutoCommit(false);
+			}
+		} finally {
+			provider.closeConnection(connection);
+		}
+	}
+
+	/** The statement text never changes, so the driver's statement cache can keep it prepared on each connection */
+	private long[] fetchSeries(final Connection connection, final int size) throws SQLException {
+		final long[] values = new long[size];
+
+		try (final PreparedStatement stmt = connection.prepareStatement(SERIES_QUERY)) {
+			stmt.setString(1, name);
+			stmt.setInt(2, size);
+
+			try (final ResultSet rs = stmt.executeQuery()) {
+				for (int i = 0; rs.next(); i++) {
+					values[i] = rs.getLong(1);
+				}
+			}
+		}
+
+		return values;
+	}
+
+	private long[] fetchIncrement(final Connection connection, final int size) throws SQLException {
+		if (!incrementVerified) {
+			verifyIncrement(connection, size);
+			incrementVerified = true;
+		}
+
+		final long first;
+		try (final PreparedStatement stmt = connection.prepareStatement(NEXTVAL_QUERY)) {
+			stmt.setString(1, name);
+
+			try (final ResultSet rs = stmt.executeQuery()) {
+				rs.next();
+				first = rs.getLong(1);
+			}
+		}
+
+		final long[] values = new long[size];
+		for (int i = 0; i < size; i++) {
+			values[i] = first + i;
+		}
+
+		return values;
+	}
+
+	/** Handing out a range the database didn't reserve for us would produce duplicates, so be paranoid */
+	private void verifyIncrement(final Connection connection, final int size) throws SQLException {
+		try (final PreparedStatement stmt = connection.prepareStatement(INCREMENT_QUERY)) {
+			stmt.setString(1, name);
+
+			try (final ResultSet rs = stmt.executeQuery()) {
+				Preconditions.checkState(rs.next(), "No such sequence: %s", name);
+
+				final long increment = rs.getLong(1);
+				Preconditions.checkState(increment == size,
+						"Sequence %s increments by %s but batchSize is %s; run ALTER SEQUENCE %s INCREMENT BY %s",
+						name, increment, size, name, size);
+			}
+		}
 	}
-}
\ No newline at end of file
+}
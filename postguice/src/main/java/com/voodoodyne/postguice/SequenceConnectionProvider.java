@@ -0,0 +1,166 @@
+package com.voodoodyne.postguice;
+
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.jdbc.connections.internal.ConnectionProviderInitiator;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.config.spi.ConfigurationService;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.service.UnknownUnwrapTypeException;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * <p>One physical connection, outside the pool, shared by every {@link Sequence} for refills. A refill usually
+ * happens while the caller holds a pooled connection of its own (the id generator runs mid-transaction), so
+ * refilling from the pool would need two connections per inserting thread; with the pool at its maximum,
+ * every inserting thread would wait out the pool's timeout for a connection nobody can give back.</p>
+ *
+ * <p>Refills are serialized on this connection. They are short and, with adaptive batches, about once a second
+ * per sequence, so this is rarely a bottleneck. The connection is opened on first use and reopened if it
+ * breaks. If the database refuses the extra connection (eg max_connections is exhausted), refills fail with that
+ * SQLException, and so does whatever asked for the next value; counting this connection in max_connections
+ * is enough to prevent it.</p>
+ *
+ * <p>Like the pool, the connection is only validated when it has sat idle longer than
+ * {@value #IDLE_VALIDATION_THRESHOLD_MILLIS}ms, so back-to-back refills don't pay an extra round trip.</p>
+ */
+@Slf4j
+class SequenceConnectionProvider implements ConnectionProvider {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final int VALIDATION_TIMEOUT_SECONDS = 5;
+
+	private static final long IDLE_VALIDATION_THRESHOLD_MILLIS = 500;
+
+	private final String url;
+	private final Properties connectionProps;
+
+	/** A j.u.c lock rather than a monitor, so waiting doesn't pin virtual threads */
+	private final ReentrantLock lock = new ReentrantLock();
+
+	/** Only touched while holding the lock */
+	private Connection connection;
+
+	/** When the connection was last given back; only touched while holding the lock */
+	private long lastReturned;
+
+	/** Guards the shared provider; a j.u.c lock because replacing it waits on the old one's lock */
+	private static final ReentrantLock SHARED_LOCK = new ReentrantLock();
+
+	/** The one shared by sequences of this session factory */
+	private static SessionFactoryImplementor sharedFactory;
+	private static SequenceConnectionProvider shared;
+
+	/**
+	 * Called once per sequence, so the lock is uncontended. When the session factory changes, the old provider's
+	 * connection is closed (after any refill in progress) so it doesn't linger against the old database.
+	 */
+	static SequenceConnectionProvider forFactory(final SessionFactoryImplementor factory) {
+		SHARED_LOCK.lock();
+		try {
+			if (factory != sharedFactory) {
+				if (shared != null)
+					shared.close();
+
+				// The factory's own getProperties() has the credentials masked out
+				shared = new SequenceConnectionProvider(factory.getServiceRegistry().getService(ConfigurationService.class).getSettings());
+				sharedFactory = factory;
+			}
+
+			return shared;
+		} finally {
+			SHARED_LOCK.unlock();
+		}
+	}
+
+	/** @param settings are the session factory's settings, for the url, credentials, and driver properties */
+	SequenceConnectionProvider(final Map<String, Object> settings) {
+		this.url = (String)settings.get(Environment.URL);
+		this.connectionProps = ConnectionProviderInitiator.getConnectionProperties(settings);
+
+		final Object user = settings.get(Environment.USER);
+		final Object pass = settings.get(Environment.PASS);
+		if (user != null)
+			connectionProps.put("user", user);
+		if (pass != null)
+			connectionProps.put("password", pass);
+	}
+
+	/** Blocks while another refill is running; the connection must be given back with closeConnection() */
+	@Override
+	public Connection getConnection() throws SQLException {
+		lock.lock();
+		try {
+			if (connection != null && System.nanoTime() - lastReturned > TimeUnit.MILLISECONDS.toNanos(IDLE_VALIDATION_THRESHOLD_MILLIS)
+					&& !connection.isValid(VALIDATION_TIMEOUT_SECONDS)) {
+				log.debug("Reopening broken sequence connection");
+				closeQuietly();
+			}
+
+			if (connection == null) {
+				connection = DriverManager.getConnection(url, connectionProps);
+				connection.setAutoCommit(true);
+			}
+
+			return connection;
+		} catch (SQLException | RuntimeException e) {
+			closeQuietly();
+			lock.unlock();
+			throw e;
+		}
+	}
+
+	@Override
+	public void closeConnection(final Connection conn) {
+		lastReturned = System.nanoTime();
+		lock.unlock();
+	}
+
+	/** Closes the connection once no refill is using it; a later refill would open a new one */
+	void close() {
+		lock.lock();
+		try {
+			closeQuietly();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void closeQuietly() {
+		if (connection != null) {
+			try {
+				connection.close();
+			} catch (SQLException e) {
+				log.debug("Error closing sequence connection", e);
+			}
+			connection = null;
+		}
+	}
+
+	@Override
+	public boolean supportsAggressiveRelease() {
+		return false;
+	}
+
+	@Override
+	public boolean isUnwrappableAs(@SuppressWarnings("rawtypes") final Class unwrapType) {
+		return ConnectionProvider.class.equals(unwrapType);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T unwrap(final Class<T> unwrapType) {
+		if (ConnectionProvider.class.equals(unwrapType))
+			return (T)this;
+
+		throw new UnknownUnwrapTypeException(unwrapType);
+	}
+}
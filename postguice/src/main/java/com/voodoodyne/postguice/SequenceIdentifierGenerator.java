@@ -0,0 +1,82 @@
+package com.voodoodyne.postguice;
+
+import org.hibernate.HibernateException;
+import org.hibernate.MappingException;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.Configurable;
+import org.hibernate.id.IdentifierGenerationException;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.PersistentIdentifierGenerator;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+
+import javax.inject.Inject;
+import java.io.Serializable;
+import java.util.Properties;
+
+/**
+ * <p>Hibernate id generator that draws from the {@link SequenceRegistry}, so entities share blocks with anyone
+ * calling {@link Sequence#next()} by hand and most inserts need no database round trip at all. Requires
+ * static injection, which PostguiceModule does.</p>
+ *
+ * <pre>
+ *  &#64;Id
+ *  &#64;GeneratedValue(generator = "thing_seq")
+ *  &#64;GenericGenerator(name = "thing_seq", strategy = "com.voodoodyne.postguice.SequenceIdentifierGenerator",
+ *      parameters = @Parameter(name = "sequence_name", value = "thing_id_seq"))
+ *  private Long id;
+ * </pre>
+ *
+ * <p>Without a {@value #SEQUENCE_NAME} parameter the sequence is {@code <table>_<column>_seq}, the name Postgres
+ * gives a bigserial column. Values left in a block at shutdown are simply never used; a sequence never hands
+ * out the same value twice, so the only cost is a gap. Since the id is known before the insert, this works with
+ * JDBC batching.</p>
+ *
+ * <p>Refills happen on a dedicated connection outside the pool (see {@link Sequence}), because the inserting
+ * session is holding a pooled one. Leave room for it in the server's max_connections; if it can't be opened,
+ * the flush that needed the id fails.</p>
+ */
+public class SequenceIdentifierGenerator implements IdentifierGenerator, Configurable {
+	public static final String SEQUENCE_NAME = "sequence_name";
+
+	@Inject
+	private static SequenceRegistry registry;
+
+	private String sequenceName;
+	private Class<?> idClass;
+
+	@Override
+	public void configure(final Type type, final Properties params, final ServiceRegistry serviceRegistry) throws MappingException {
+		idClass = type.getReturnedClass();
+		if (idClass != Long.class && idClass != long.class && idClass != Integer.class && idClass != int.class)
+			throw new MappingException("SequenceIdentifierGenerator can only generate long or int ids, not " + idClass);
+
+		sequenceName = ConfigurationHelper.getString(SEQUENCE_NAME, params);
+		if (sequenceName == null) {
+			final String table = params.getProperty(PersistentIdentifierGenerator.TABLE);
+			final String column = params.getProperty(PersistentIdentifierGenerator.PK);
+			if (table == null || column == null)
+				throw new MappingException("SequenceIdentifierGenerator needs a " + SEQUENCE_NAME + " parameter");
+
+			sequenceName = table + "_" + column + "_seq";
+		}
+	}
+
+	@Override
+	public Serializable generate(final SharedSessionContractImplementor session, final Object object) throws HibernateException {
+		if (registry == null)
+			throw new IdentifierGenerationException("SequenceIdentifierGenerator has not been statically injected; install PostguiceModule");
+
+		final long value = registry.get(sequenceName).next();
+
+		if (idClass == Long.class || idClass == long.class)
+			return value;
+
+		try {
+			return Math.toIntExact(value);
+		} catch (ArithmeticException e) {
+			throw new IdentifierGenerationException("Sequence " + sequenceName + " produced " + value + ", which doesn't fit in an int", e);
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.voodoodyne.postguice;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * <p>Holds one {@link Sequence} per database sequence name so that everyone in the process shares the same
+ * batches. Sequences you don't {@link #register(Sequence)} explicitly are created adaptive, with batch sizes
+ * bounded by these properties in {@link DatabaseConfig#getProperties()}:</p>
+ *
+ * <ul>
+ *     <li>{@value #MIN_BATCH_SIZE} (default {@value #DEFAULT_MIN_BATCH_SIZE})</li>
+ *     <li>{@value #MAX_BATCH_SIZE} (default {@value #DEFAULT_MAX_BATCH_SIZE})</li>
+ * </ul>
+ *
+ * <p>{@link #stats()} is intended to be scraped by whatever metrics system you use.</p>
+ */
+@Singleton
+public class SequenceRegistry {
+	public static final String MIN_BATCH_SIZE = "postguice.sequence.minBatchSize";
+	public static final String MAX_BATCH_SIZE = "postguice.sequence.maxBatchSize";
+
+	public static final int DEFAULT_MIN_BATCH_SIZE = 10;
+	public static final int DEFAULT_MAX_BATCH_SIZE = 10000;
+
+	private final int minBatchSize;
+	private final int maxBatchSize;
+
+	private final ConcurrentMap<String, Sequence> sequences = new ConcurrentHashMap<>();
+
+	@Inject
+	public SequenceRegistry(final DatabaseConfig cfg) {
+		this(cfg.getIntProperty(MIN_BATCH_SIZE, DEFAULT_MIN_BATCH_SIZE), cfg.getIntProperty(MAX_BATCH_SIZE, DEFAULT_MAX_BATCH_SIZE));
+	}
+
+	/** Checked here rather than on first use, so bad properties fail when the injector is created */
+	public SequenceRegistry(final int minBatchSize, final int maxBatchSize) {
+		Preconditions.checkArgument(minBatchSize > 0, "%s must be positive, not %s", MIN_BATCH_SIZE, minBatchSize);
+		Preconditions.checkArgument(minBatchSize <= maxBatchSize, "%s (%s) must not exceed %s (%s)", MIN_BATCH_SIZE, minBatchSize, MAX_BATCH_SIZE, maxBatchSize);
+
+		this.minBatchSize = minBatchSize;
+		this.maxBatchSize = maxBatchSize;
+	}
+
+	/** @return the sequence for that name, creating an adaptive one if nothing has been registered */
+	public Sequence get(final String name) {
+		return sequences.computeIfAbsent(name, n -> Sequence.adaptive(n, minBatchSize, maxBatchSize));
+	}
+
+	/**
+	 * Use a specifically configured sequence (eg, one with the INCREMENT strategy) for its name.
+	 * @throws IllegalStateException if a sequence with that name is already in use
+	 */
+	public Sequence register(final Sequence sequence) {
+		final Sequence existing = sequences.putIfAbsent(sequence.getName(), sequence);
+		Preconditions.checkState(existing == null, "Sequence %s is already registered", sequence.getName());
+		return sequence;
+	}
+
+	/** @return metrics for every sequence, keyed by name */
+	public Map<String, SequenceStats> stats() {
+		final ImmutableMap.Builder<String, SequenceStats> builder = ImmutableMap.builder();
+		sequences.forEach((name, sequence) -> builder.put(name, sequence.stats()));
+		return builder.build();
+	}
+}
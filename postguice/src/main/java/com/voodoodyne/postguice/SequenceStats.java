@@ -0,0 +1,31 @@
+package com.voodoodyne.postguice;
+
+import lombok.Value;
+
+/**
+ * Point-in-time metrics for a {@link Sequence}. Counters are cumulative since the sequence was created.
+ */
+@Value
+public class SequenceStats {
+	String name;
+
+	/** Size of the next batch that will be fetched */
+	int batchSize;
+
+	long refillCount;
+
+	/** Mean time spent fetching a batch from the database */
+	long refillNanosMean;
+
+	/** Worst time spent fetching a batch from the database */
+	long refillNanosMax;
+
+	/** Values handed out to callers */
+	long allocated;
+
+	/** Values fetched but not yet handed out; these are wasted if the process stops now */
+	long unused;
+
+	/** Values per second, as observed over the most recently consumed batch */
+	double allocationRate;
+}
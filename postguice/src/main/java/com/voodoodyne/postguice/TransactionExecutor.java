@@ -0,0 +1,115 @@
+package com.voodoodyne.postguice;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.voodoodyne.postguice.pool.PoolMetrics;
+import com.voodoodyne.postguice.pool.PostguiceConnectionProvider;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Runs transactions off the caller's thread, for {@link Transactions#transactAsync(Callable)}. There are only
+ * as many threads as the pool has connections, so work never piles up waiting for a connection inside the pool;
+ * it waits here, in a bounded queue, where you can see it. When the queue is full, new work is rejected
+ * immediately (the future fails with {@link RejectedExecutionException}) rather than blocking the caller.</p>
+ *
+ * <p>Properties in {@link DatabaseConfig#getProperties()}:</p>
+ *
+ * <ul>
+ *     <li>{@value #THREADS} - worker threads (default the maximum size of the configured connection pool, as
+ *         reported by {@link PoolMetrics}; with any other connection provider, {@value PostguiceConnectionProvider#MAX_SIZE}
+ *         if set, else {@value #DEFAULT_THREADS})</li>
+ *     <li>{@value #QUEUE_SIZE} - work waiting for a thread before new work is rejected
+ *         (default {@value #DEFAULT_QUEUE_MULTIPLE} times the threads)</li>
+ * </ul>
+ */
+@Slf4j
+@Singleton
+public class TransactionExecutor {
+	public static final String THREADS = "postguice.async.threads";
+	public static final String QUEUE_SIZE = "postguice.async.queueSize";
+
+	public static final int DEFAULT_THREADS = 20;
+	public static final int DEFAULT_QUEUE_MULTIPLE = 50;
+
+	private final ThreadPoolExecutor executor;
+	private final LongAdder rejected = new LongAdder();
+
+	@Inject
+	public TransactionExecutor(final DatabaseConfig cfg) {
+		this(threads(cfg), cfg);
+	}
+
+	private TransactionExecutor(final int threads, final DatabaseConfig cfg) {
+		this(threads, cfg.getIntProperty(QUEUE_SIZE, threads * DEFAULT_QUEUE_MULTIPLE));
+	}
+
+	public TransactionExecutor(final int threads, final int queueSize) {
+		executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<>(queueSize),
+				new ThreadFactoryBuilder().setDaemon(true).setNameFormat("postguice-transact-%d").build());
+	}
+
+	/** Run the work in its own unit of work on a worker thread; the work is responsible for the transaction */
+	<R> CompletableFuture<R> submit(final Callable<R> work) {
+		final CompletableFuture<R> future = new CompletableFuture<>();
+
+		try {
+			executor.execute(() -> {
+				if (future.isCancelled())
+					return;
+
+				try {
+					future.complete(Transactions.inUnitOfWork(work));
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			rejected.increment();
+			future.completeExceptionally(e);
+		}
+
+		return future;
+	}
+
+	/** @return the number of tasks waiting for a worker */
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	/** @return the number of tasks running right now */
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	/** @return the number of tasks turned away because the queue was full */
+	public long getRejectedCount() {
+		return rejected.sum();
+	}
+
+	private static int threads(final DatabaseConfig cfg) {
+		return cfg.getIntProperty(THREADS, poolMax(cfg));
+	}
+
+	/** Ask the running pool, since DBCP's maxActive isn't a property; the executor is created on first async use */
+	private static int poolMax(final DatabaseConfig cfg) {
+		try {
+			final int max = PoolMetrics.of(EM.emf()).getMax();
+			if (max > 0)
+				return max;
+		} catch (RuntimeException e) {
+			log.debug("Could not read the connection pool's maximum size", e);
+		}
+
+		return cfg.getIntProperty(PostguiceConnectionProvider.MAX_SIZE, DEFAULT_THREADS);
+	}
+}
@@ -1,17 +1,36 @@
 package com.voodoodyne.postguice;
 
 import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 import com.google.inject.persist.Transactional;
+import com.google.inject.persist.UnitOfWork;
+import com.google.inject.persist.jpa.PostguiceBridgeModule;
+import com.voodoodyne.postguice.trace.Tracing;
 import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.Session;
+import org.postgresql.util.PSQLException;
+import org.postgresql.util.ServerErrorMessage;
 
 import javax.inject.Inject;
+import javax.inject.Provider;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * <p>
  *     Utilities for working with transactions. Requires static injection.
  * </p>
  */
+@Slf4j
 public class Transactions {
 
 	static class TransactionAdaptor {
@@ -25,6 +44,29 @@ public class Transactions {
 	@Inject
 	private static TransactionAdaptor adaptor;
 
+	@Inject
+	private static UnitOfWork unitOfWork;
+
+	@Inject
+	private static Provider<TransactionExecutor> executor;
+
+	private static final ThreadLocal<Boolean> readOnly = ThreadLocal.withInitial(() -> false);
+
+	/** serialization_failure and deadlock_detected */
+	private static final String SERIALIZATION_FAILURE = "40001";
+	private static final String DEADLOCK_DETECTED = "40P01";
+
+	/**
+	 * feature_not_supported, which is what a server-side prepared statement fails with after a schema change
+	 * alters its result columns. pgjdbc drops the stale statement when this happens, so a retry re-prepares it.
+	 * The server function that raised it tells it apart from other 0A000s without depending on the message
+	 * language; pgjdbc's autosave does the same.
+	 */
+	private static final String FEATURE_NOT_SUPPORTED = "0A000";
+	private static final Set<String> CACHED_PLAN_ROUTINES = ImmutableSet.of("RevalidateCachedQuery", "RevalidateCachedPlan");
+
+	private static final ConcurrentMap<String, LongAdder> retries = new ConcurrentHashMap<>();
+
 	/**
 	 * @return true if we're in a transaction
 	 */
@@ -46,11 +88,22 @@ public class Transactions {
 		Preconditions.checkState(!inTransaction(), "Expected NOT to be in a transaction");
 	}
 
+	/**
+	 * @return true if the current (or next) transaction on this thread was started with transactReadOnly()
+	 */
+	public static boolean isReadOnly() {
+		return readOnly.get();
+	}
+
 	/**
 	 * Execute the work in a transaction. This is functionally identical to putting the work in a method
-	 * and annotating it with @Transactional.
+	 * and annotating it with @Transactional. With tracing on, an outermost transaction is traced;
+	 * see {@link Tracing}.
 	 */
 	public static <R> R transact(final Callable<R> work) {
+		if (Tracing.isEnabled() && !Tracing.isTracing() && !inTransaction())
+			return Tracing.trace(() -> adaptor.transact(work));
+
 		return adaptor.transact(work);
 	}
 
@@ -82,4 +135,217 @@ public class Transactions {
 		checkNotInTransaction();
 		transact(work);
 	}
+
+	/**
+	 * <p>Execute the work in a transaction, in a unit of work (EntityManager and connection) which belongs to
+	 * just this task and is closed when it finishes. If a unit of work is already active on this thread, the work
+	 * joins it and leaves it open.</p>
+	 *
+	 * <p>Use this for work on short-lived threads, such as virtual threads or executor tasks, where nothing like a
+	 * servlet filter will end the unit of work that EM.em() starts implicitly. Nothing in this path holds a monitor
+	 * while waiting on the database as long as the pool doesn't: the postguice pool and Sequence are lock-free,
+	 * and pgjdbc uses j.u.c locks. DBCP (commons-pool 1.x) waits inside synchronized blocks, so on virtual threads
+	 * it pins carriers; use the postguice pool.</p>
+	 */
+	public static <R> R transactInUnitOfWork(final Callable<R> work) {
+		return inUnitOfWork(() -> transact(work));
+	}
+
+	/** Run the work in a unit of work of its own, unless this thread already has one */
+	@SneakyThrows
+	static <R> R inUnitOfWork(final Callable<R> work) {
+		if (PostguiceBridgeModule.isWorking(unitOfWork))
+			return work.call();
+
+		unitOfWork.begin();
+		try {
+			return work.call();
+		} finally {
+			unitOfWork.end();
+		}
+	}
+
+	/**
+	 * Execute the work in a transaction, in a unit of work which belongs to just this task.
+	 * See {@link #transactInUnitOfWork(Callable)}.
+	 */
+	public static void transactInUnitOfWork(final Runnable work) {
+		transactInUnitOfWork(() -> {
+			work.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Execute the work in a read-only transaction. With a RoutingConnectionProvider this runs on a replica.
+	 * Entities are loaded read-only, so hibernate keeps no snapshots and skips dirty checking. If we are already
+	 * in a transaction, the work simply joins it; we can't move an open transaction to another database.
+	 */
+	public static <R> R transactReadOnly(final Callable<R> work) {
+		if (inTransaction())
+			return transact(work);
+
+		readOnly.set(true);
+		try {
+			return transact(() -> {
+				final Session session = EM.em().unwrap(Session.class);
+				session.setDefaultReadOnly(true);
+				try {
+					return work.call();
+				} finally {
+					session.setDefaultReadOnly(false);
+				}
+			});
+		} finally {
+			readOnly.set(false);
+		}
+	}
+
+	/**
+	 * Execute the work in a read-only transaction. With a RoutingConnectionProvider this runs on a replica.
+	 * Entities are loaded read-only, so hibernate keeps no snapshots and skips dirty checking. If we are already
+	 * in a transaction, the work simply joins it; we can't move an open transaction to another database.
+	 */
+	public static void transactReadOnly(final Runnable work) {
+		transactReadOnly(() -> {
+			work.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Execute the work in a new transaction, in its own unit of work, on a {@link TransactionExecutor} thread.
+	 * The work never joins a transaction the caller has open. If too much work is already queued, the future
+	 * fails immediately with a RejectedExecutionException.
+	 */
+	public static <R> CompletableFuture<R> transactAsync(final Callable<R> work) {
+		return executor.get().submit(() -> transact(work));
+	}
+
+	/**
+	 * Execute the work in a new transaction on a {@link TransactionExecutor} thread.
+	 * See {@link #transactAsync(Callable)}.
+	 */
+	public static CompletableFuture<Void> transactAsync(final Runnable work) {
+		return transactAsync(() -> {
+			work.run();
+			return null;
+		});
+	}
+
+	/**
+	 * Execute the work in a new read-only transaction on a {@link TransactionExecutor} thread.
+	 * See {@link #transactAsync(Callable)} and {@link #transactReadOnly(Callable)}.
+	 */
+	public static <R> CompletableFuture<R> transactReadOnlyAsync(final Callable<R> work) {
+		return executor.get().submit(() -> transactReadOnly(work));
+	}
+
+	/**
+	 * <p>Execute the work in a transaction, retrying the whole transaction if it fails with a serialization
+	 * failure or deadlock (SQLState 40001 or 40P01), which are expected under SERIALIZABLE isolation or heavy
+	 * contention, or with "cached plan must not change result type", which a server-side prepared statement
+	 * fails with once after a schema change (unless {@link DatabaseConfig#getAutosave()} already recovers from
+	 * that inside the transaction). The work must be safe to run more than once; the session is
+	 * cleared between attempts.</p>
+	 *
+	 * <p>Retrying only makes sense at the outermost transaction: once Postgres has failed a transaction, nothing
+	 * more can happen in it. So if we are already in a transaction, the work just joins it and any failure
+	 * propagates to whoever started it - that's where the retry belongs.</p>
+	 *
+	 * <p>Retries are counted per call site; see {@link #retryCounts()}.</p>
+	 */
+	public static <R> R transactRetrying(final RetryPolicy policy, final Callable<R> work) {
+		if (inTransaction())
+			return transact(work);
+
+		return retrying(policy, () -> transact(work), () -> {
+			// If the transaction started the unit of work, it's already gone; otherwise don't carry stale entities over
+			if (PostguiceBridgeModule.isWorking(unitOfWork))
+				EM.em().clear();
+		});
+	}
+
+	/**
+	 * The retry loop, apart from the transaction so it can be tested alone. The work may throw checked exceptions
+	 * (transact() rethrows whatever the Callable does), so everything is caught; the last failure is rethrown as is.
+	 */
+	@SneakyThrows
+	static <R> R retrying(final RetryPolicy policy, final Callable<R> work, final Runnable beforeRetry) {
+		for (int attempt = 1; ; attempt++) {
+			try {
+				return work.call();
+			} catch (Exception e) {
+				if (attempt >= policy.getMaxAttempts() || !isRetryable(e))
+					throw e;
+
+				final String callSite = callSite();
+				retries.computeIfAbsent(callSite, k -> new LongAdder()).increment();
+
+				final long backoff = policy.backoffMillis(attempt);
+				log.debug("Retrying transaction from {} after {}ms (attempt {} failed): {}", callSite, backoff, attempt, e.toString());
+
+				beforeRetry.run();
+
+				try {
+					Thread.sleep(backoff);
+				} catch (InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw e;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Execute the work in a transaction, retrying serialization failures and deadlocks.
+	 * See {@link #transactRetrying(RetryPolicy, Callable)}.
+	 */
+	public static void transactRetrying(final RetryPolicy policy, final Runnable work) {
+		transactRetrying(policy, () -> {
+			work.run();
+			return null;
+		});
+	}
+
+	/** @return the number of retries so far, keyed by the stack frame that called transactRetrying() */
+	public static Map<String, Long> retryCounts() {
+		final ImmutableMap.Builder<String, Long> builder = ImmutableMap.builder();
+		retries.forEach((callSite, count) -> builder.put(callSite, count.sum()));
+		return builder.build();
+	}
+
+	/** Look anywhere in the cause chain; hibernate and guice-persist both like to wrap */
+	private static boolean isRetryable(final Throwable t) {
+		for (final Throwable cause : Throwables.getCausalChain(t)) {
+			if (cause instanceof SQLException) {
+				for (SQLException sql = (SQLException)cause; sql != null; sql = sql.getNextException()) {
+					if (SERIALIZATION_FAILURE.equals(sql.getSQLState()) || DEADLOCK_DETECTED.equals(sql.getSQLState()))
+						return true;
+					if (isStalePlan(sql))
+						return true;
+				}
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean isStalePlan(final SQLException sql) {
+		if (!FEATURE_NOT_SUPPORTED.equals(sql.getSQLState()) || !(sql instanceof PSQLException))
+			return false;
+
+		final ServerErrorMessage error = ((PSQLException)sql).getServerErrorMessage();
+		return error != null && CACHED_PLAN_ROUTINES.contains(error.getRoutine());
+	}
+
+	/** Only computed when we actually retry */
+	private static String callSite() {
+		for (final StackTraceElement frame : new Throwable().getStackTrace()) {
+			if (!frame.getClassName().equals(Transactions.class.getName()))
+				return frame.toString();
+		}
+
+		return "unknown";
+	}
 }
@@ -1,5 +1,6 @@
 package com.voodoodyne.postguice.dbcp;
 
+import com.voodoodyne.postguice.pool.PoolMetrics;
 import lombok.Getter;
 import lombok.Setter;
 import lombok.extern.slf4j.Slf4j;
@@ -7,7 +8,6 @@ import org.apache.commons.dbcp.ConnectionFactory;
 import org.apache.commons.dbcp.DriverManagerConnectionFactory;
 import org.apache.commons.dbcp.PoolableConnectionFactory;
 import org.apache.commons.dbcp.PoolingDataSource;
-import org.apache.commons.pool.ObjectPool;
 import org.apache.commons.pool.impl.GenericObjectPool;
 import org.hibernate.HibernateException;
 import org.hibernate.cfg.Environment;
@@ -19,7 +19,10 @@ import org.hibernate.service.spi.Configurable;
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Properties;
 
 /**
@@ -27,7 +30,11 @@ import java.util.Properties;
  * and this provider for JPA.
  *
  * See persistence.xml (and hardcoded defaults below) for configuration. If you want to change the hardcoded defaults
- * below, subclass this and override the values in the constructor.
+ * below, subclass this and override the values in the constructor. See {@link PoolMetrics} for instrumentation
+ * and leak detection; DBCP cannot report how many threads are waiting.
+ *
+ * commons-pool 1.x waits for connections inside synchronized blocks, which pins the carrier thread when
+ * called from a virtual thread. Prefer the PostguiceConnectionProvider there.
  *
  * <pre>
  * {@code
@@ -45,6 +52,11 @@ public class DBCPConnectionProvider implements ConnectionProvider, Configurable
 
 	private Integer isolation;
 	private DataSource dataSource;
+	private GenericObjectPool connectionPool;
+	private PoolMetrics metrics;
+
+	/** By identity, since DBCP's wrappers change their hashCode() once closed */
+	private final Map<Connection, PoolMetrics.Lease> leases = Collections.synchronizedMap(new IdentityHashMap<>());
 
 	private static final String validationQuery = "SELECT 1";
 
@@ -63,15 +75,35 @@ public class DBCPConnectionProvider implements ConnectionProvider, Configurable
 
 	@Override
 	public Connection getConnection() throws SQLException {
-		final Connection connection = dataSource.getConnection();
+		final long start = System.nanoTime();
 
-		if (isolation != null) {
-			connection.setTransactionIsolation(isolation);
+		final Connection connection;
+		try {
+			connection = dataSource.getConnection();
+		} catch (SQLException e) {
+			if (e.getCause() instanceof NoSuchElementException) {
+				metrics.exhausted(System.nanoTime() - start);
+			}
+			throw e;
 		}
-		if (connection.getAutoCommit()) {
-			connection.setAutoCommit(false);
+
+		final long waited = System.nanoTime() - start;
+
+		try {
+			if (isolation != null) {
+				connection.setTransactionIsolation(isolation);
+			}
+			if (connection.getAutoCommit()) {
+				connection.setAutoCommit(false);
+			}
+		} catch (SQLException | RuntimeException e) {
+			connection.close();
+			throw e;
 		}
 
+		// Only once the caller is sure to get the connection, so a failure above can't leave a lease behind
+		leases.put(connection, metrics.borrowed(waited));
+
 		return connection;
 	}
 
@@ -96,7 +128,7 @@ public class DBCPConnectionProvider implements ConnectionProvider, Configurable
 		}
 
 		try {
-			final ObjectPool connectionPool = new GenericObjectPool(
+			connectionPool = new GenericObjectPool(
 					null,
 					dbcpMaxActive,
 					dbcpWhenExhausted,
@@ -106,10 +138,15 @@ public class DBCPConnectionProvider implements ConnectionProvider, Configurable
 					dbcpValidationOnReturn
 			);
 
+			// Every setting goes to the driver as-is, as it always has (eg sslmode, ApplicationName, socketTimeout),
+			// and hibernate.connection.* settings like reWriteBatchedInserts also without their prefix
 			final Properties connectionProps = new Properties();
 			for (final Object key : configurationValues.keySet()) {
-				connectionProps.put(key, configurationValues.get(key));
+				final Object value = configurationValues.get(key);
+				if (value != null)
+					connectionProps.put(key, value);
 			}
+			connectionProps.putAll(ConnectionProviderInitiator.getConnectionProperties(configurationValues));
 			final String user = (String) configurationValues.get(Environment.USER);
 			final String pass = (String) configurationValues.get(Environment.PASS);
 			connectionProps.put("user", user);
@@ -127,6 +164,28 @@ public class DBCPConnectionProvider implements ConnectionProvider, Configurable
 
 			this.dataSource = new PoolingDataSource(connectionPool);
 
+			metrics = PoolMetrics.configure(new PoolMetrics.Gauges() {
+				@Override
+				public int active() {
+					return connectionPool.getNumActive();
+				}
+
+				@Override
+				public int idle() {
+					return connectionPool.getNumIdle();
+				}
+
+				@Override
+				public int waiting() {
+					return -1;
+				}
+
+				@Override
+				public int max() {
+					return connectionPool.getMaxActive();
+				}
+			}, configurationValues);
+
 		} catch (Exception e) {
 			log.error("Could not instantiate DBCP connection pool", e);
 			throw new HibernateException("Could not instantiate DBCP connection pool", e);
@@ -143,6 +202,11 @@ public class DBCPConnectionProvider implements ConnectionProvider, Configurable
 
 	@Override
 	public void closeConnection(Connection conn) throws SQLException {
+		final PoolMetrics.Lease lease = leases.remove(conn);
+		if (lease != null) {
+			metrics.returned(lease);
+		}
+
 		conn.close();
 	}
 
@@ -153,7 +217,8 @@ public class DBCPConnectionProvider implements ConnectionProvider, Configurable
 
 	@Override
 	public boolean isUnwrappableAs(@SuppressWarnings("rawtypes") Class unwrapType) {
-		return ConnectionProvider.class.equals(unwrapType) || DBCPConnectionProvider.class.isAssignableFrom(unwrapType);
+		return ConnectionProvider.class.equals(unwrapType) || DBCPConnectionProvider.class.isAssignableFrom(unwrapType)
+				|| PoolMetrics.class.equals(unwrapType);
 	}
 
 	@Override
@@ -165,6 +230,9 @@ public class DBCPConnectionProvider implements ConnectionProvider, Configurable
 		if (DataSource.class.isAssignableFrom(unwrapType)) {
 			return (T) this.dataSource;
 		}
+		if (PoolMetrics.class.equals(unwrapType)) {
+			return (T) this.metrics;
+		}
 		throw new UnknownUnwrapTypeException(unwrapType);
 	}
 }
@@ -0,0 +1,145 @@
+package com.voodoodyne.postguice.pool;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * <p>Lock-free holder for pool entries, modeled on HikariCP's ConcurrentBag. A borrower looks first at the
+ * entries its own thread most recently returned (usually a hit, with no contention at all), then scans the
+ * shared list claiming an entry with a CAS, and only then waits for a direct handoff from a returning thread.</p>
+ */
+class ConnectionBag {
+	/** Don't let a thread hoard references to more entries than this */
+	private static final int THREAD_LIST_MAX = 16;
+
+	/** A returning thread yields this many times trying to hand off before it starts parking */
+	private static final int HANDOFF_SPINS = 16;
+
+	private final CopyOnWriteArrayList<PoolEntry> shared = new CopyOnWriteArrayList<>();
+	private final ThreadLocal<List<PoolEntry>> threadList = ThreadLocal.withInitial(() -> new ArrayList<>(THREAD_LIST_MAX));
+	private final AtomicInteger waiters = new AtomicInteger();
+	private final SynchronousQueue<PoolEntry> handoff = new SynchronousQueue<>(true);
+
+	/** Something that can (maybe) make a new entry, already marked IN_USE and added to the bag */
+	interface Creator {
+		PoolEntry create() throws Exception;
+	}
+
+	/**
+	 * @param creator is asked for a new entry if no idle entry exists
+	 * @return an entry marked IN_USE, or null if the timeout elapsed
+	 */
+	PoolEntry borrow(final long timeout, final TimeUnit unit, final Creator creator) throws Exception {
+		final List<PoolEntry> list = threadList.get();
+		for (int i = list.size() - 1; i >= 0; i--) {
+			final PoolEntry entry = list.remove(i);
+			if (entry.compareAndSet(PoolEntry.NOT_IN_USE, PoolEntry.IN_USE))
+				return entry;
+		}
+
+		// Count ourselves as waiting before scanning so a concurrent requite() knows to hand off to us
+		waiters.incrementAndGet();
+		try {
+			PoolEntry entry = claimShared();
+			if (entry != null)
+				return entry;
+
+			// Connecting takes a full handshake; returning threads shouldn't spin trying to hand off to us meanwhile
+			waiters.decrementAndGet();
+			try {
+				entry = creator.create();
+			} finally {
+				waiters.incrementAndGet();
+			}
+			if (entry != null)
+				return entry;
+
+			// Anything returned while we weren't counted went back to the shared list
+			entry = claimShared();
+			if (entry != null)
+				return entry;
+
+			long remaining = unit.toNanos(timeout);
+			while (remaining > 0) {
+				final long start = System.nanoTime();
+				entry = handoff.poll(remaining, TimeUnit.NANOSECONDS);
+				if (entry == null || entry.compareAndSet(PoolEntry.NOT_IN_USE, PoolEntry.IN_USE))
+					return entry;
+
+				remaining -= System.nanoTime() - start;
+			}
+
+			return null;
+		} finally {
+			waiters.decrementAndGet();
+		}
+	}
+
+	private PoolEntry claimShared() {
+		for (final PoolEntry entry : shared) {
+			if (entry.compareAndSet(PoolEntry.NOT_IN_USE, PoolEntry.IN_USE))
+				return entry;
+		}
+
+		return null;
+	}
+
+	/** Give an entry back; a waiting borrower gets it directly, otherwise it is remembered by this thread */
+	void requite(final PoolEntry entry) {
+		entry.setState(PoolEntry.NOT_IN_USE);
+
+		for (int i = 0; waiters.get() > 0; i++) {
+			if (entry.getState() != PoolEntry.NOT_IN_USE || handoff.offer(entry))
+				return;
+
+			if (i < HANDOFF_SPINS)
+				Thread.yield();
+			else
+				LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+		}
+
+		final List<PoolEntry> list = threadList.get();
+		if (list.size() < THREAD_LIST_MAX)
+			list.add(entry);
+	}
+
+	/** Add an entry already marked IN_USE by its creator */
+	void add(final PoolEntry entry) {
+		shared.add(entry);
+	}
+
+	/** Permanently take an entry out of circulation; it must be IN_USE by the caller */
+	boolean remove(final PoolEntry entry) {
+		if (!entry.compareAndSet(PoolEntry.IN_USE, PoolEntry.REMOVED) && !entry.compareAndSet(PoolEntry.NOT_IN_USE, PoolEntry.REMOVED))
+			return false;
+
+		return shared.remove(entry);
+	}
+
+	List<PoolEntry> values() {
+		return new ArrayList<>(shared);
+	}
+
+	int size() {
+		return shared.size();
+	}
+
+	int countIdle() {
+		int count = 0;
+		for (final PoolEntry entry : shared) {
+			if (entry.getState() == PoolEntry.NOT_IN_USE)
+				count++;
+		}
+
+		return count;
+	}
+
+	int getWaiters() {
+		return waiters.get();
+	}
+}
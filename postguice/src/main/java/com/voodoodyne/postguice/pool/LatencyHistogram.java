@@ -0,0 +1,75 @@
+package com.voodoodyne.postguice.pool;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations in power-of-two nanosecond buckets. Cheap enough to record on every borrow;
+ * percentiles are accurate to within a factor of two, which is plenty for sizing a pool.
+ */
+public class LatencyHistogram {
+	/** Bucket i holds values in [2^i, 2^(i+1)), with zero going into bucket 0 */
+	private final AtomicLongArray buckets = new AtomicLongArray(64);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(final long nanos) {
+		final long value = Math.max(0, nanos);
+
+		buckets.incrementAndGet(value == 0 ? 0 : 63 - Long.numberOfLeadingZeros(value));
+		count.increment();
+		sum.add(value);
+
+		if (value > max.get())
+			max.accumulateAndGet(value, Math::max);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public long getMeanNanos() {
+		final long n = count.sum();
+		return n == 0 ? 0 : sum.sum() / n;
+	}
+
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	/**
+	 * @param quantile is between 0 and 1, eg 0.99
+	 * @return the upper bound of the bucket containing that quantile
+	 */
+	public long getPercentileNanos(final double quantile) {
+		final long[] snapshot = getBuckets();
+
+		long total = 0;
+		for (final long bucket : snapshot)
+			total += bucket;
+
+		if (total == 0)
+			return 0;
+
+		final long rank = (long)Math.ceil(quantile * total);
+		long seen = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			seen += snapshot[i];
+			if (seen >= rank)
+				return i == 63 ? Long.MAX_VALUE : (1L << (i + 1)) - 1;
+		}
+
+		return max.get();
+	}
+
+	/** @return counts for each power-of-two bucket, for exporting to a real metrics system */
+	public long[] getBuckets() {
+		final long[] snapshot = new long[buckets.length()];
+		for (int i = 0; i < snapshot.length; i++)
+			snapshot[i] = buckets.get(i);
+
+		return snapshot;
+	}
+}
@@ -0,0 +1,58 @@
+package com.voodoodyne.postguice.pool;
+
+import java.sql.Connection;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+/**
+ * A physical connection in the pool, plus the connection state we track so that we only make driver
+ * calls when something actually changes. The tracked fields are only touched by whoever holds the entry.
+ */
+class PoolEntry {
+	static final int NOT_IN_USE = 0;
+	static final int IN_USE = 1;
+	static final int REMOVED = -1;
+
+	private static final AtomicIntegerFieldUpdater<PoolEntry> STATE = AtomicIntegerFieldUpdater.newUpdater(PoolEntry.class, "state");
+
+	final Connection connection;
+	final long createdAt = System.nanoTime();
+
+	private volatile int state;
+
+	/** When the entry was last handed back to the pool */
+	volatile long lastReturned = createdAt;
+
+	boolean autoCommit;
+	int isolation;
+	boolean readOnly;
+
+	/** What isolation and readOnly were when the connection was created; restored when a borrower changes them */
+	final int defaultIsolation;
+	final boolean defaultReadOnly;
+
+	PoolEntry(final Connection connection, final boolean autoCommit, final int isolation, final boolean readOnly) {
+		this.connection = connection;
+		this.autoCommit = autoCommit;
+		this.isolation = isolation;
+		this.readOnly = readOnly;
+		this.defaultIsolation = isolation;
+		this.defaultReadOnly = readOnly;
+	}
+
+	/** @return true if a borrower left isolation or readOnly different from the defaults */
+	boolean isDirty() {
+		return isolation != defaultIsolation || readOnly != defaultReadOnly;
+	}
+
+	int getState() {
+		return state;
+	}
+
+	void setState(final int update) {
+		state = update;
+	}
+
+	boolean compareAndSet(final int expect, final int update) {
+		return STATE.compareAndSet(this, expect, update);
+	}
+}
@@ -0,0 +1,23 @@
+package com.voodoodyne.postguice.pool;
+
+/**
+ * Implement this to bridge connection pool events to your metrics system. Register it by class name with the
+ * {@value PoolMetrics#LISTENER} property; it needs a no-arg constructor. Callbacks happen on the borrowing
+ * thread (or the leak detection thread) so they should be cheap.
+ */
+public interface PoolListener {
+	/** A connection was handed out after waiting this long */
+	default void borrowed(final long waitNanos) {}
+
+	/** A connection came back after being held this long */
+	default void returned(final long holdNanos) {}
+
+	/** Nobody could get a connection within the timeout */
+	default void exhausted(final long waitNanos) {}
+
+	/**
+	 * A connection has been held past the leak detection threshold.
+	 * @param borrowSite has the stack trace of whoever borrowed the connection
+	 */
+	default void leaked(final long heldNanos, final Throwable borrowSite) {}
+}
@@ -0,0 +1,160 @@
+package com.voodoodyne.postguice.pool;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.HibernateException;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * <p>Instrumentation shared by the postguice connection providers: histograms of borrow wait and hold time,
+ * occupancy gauges, exhaustion and leak counts. Events are also forwarded to an optional {@link PoolListener}.
+ * Get the instance for a running pool with {@link #of(EntityManagerFactory)}.</p>
+ *
+ * <p>Leak detection is off by default. When {@value #LEAK_DETECTION_THRESHOLD} is set, each borrow captures its
+ * stack (which is not free) and a warning is logged if the connection is still held after that many milliseconds.</p>
+ */
+@Slf4j
+public class PoolMetrics {
+	public static final String LISTENER = "postguice.pool.listener";
+	public static final String LEAK_DETECTION_THRESHOLD = "postguice.pool.leakDetectionThreshold";
+
+	private static final ScheduledThreadPoolExecutor LEAK_DETECTOR = new ScheduledThreadPoolExecutor(1,
+			new ThreadFactoryBuilder().setDaemon(true).setNameFormat("postguice-leak-detector").build());
+	static {
+		LEAK_DETECTOR.setRemoveOnCancelPolicy(true);
+	}
+
+	/** Bookkeeping for one borrowed connection */
+	public static class Lease {
+		private final long start = System.nanoTime();
+		private ScheduledFuture<?> leakCheck;
+	}
+
+	/** What the pool itself knows about its occupancy; a gauge returns -1 if the pool can't tell */
+	public interface Gauges {
+		int active();
+		int idle();
+		int waiting();
+		int max();
+	}
+
+	@Getter
+	private final LatencyHistogram borrowWait = new LatencyHistogram();
+	@Getter
+	private final LatencyHistogram holdTime = new LatencyHistogram();
+
+	private final LongAdder exhausted = new LongAdder();
+	private final LongAdder leaks = new LongAdder();
+
+	private final Gauges gauges;
+	private final PoolListener listener;
+	private final long leakThresholdNanos;
+
+	public PoolMetrics(final Gauges gauges, final PoolListener listener, final long leakThresholdMillis) {
+		this.gauges = gauges;
+		this.listener = listener == null ? new PoolListener() {} : listener;
+		this.leakThresholdNanos = TimeUnit.MILLISECONDS.toNanos(leakThresholdMillis);
+	}
+
+	/** Build from the {@value #LISTENER} and {@value #LEAK_DETECTION_THRESHOLD} properties */
+	public static PoolMetrics configure(final Gauges gauges, @SuppressWarnings("rawtypes") final Map configurationValues) {
+		final String listenerClass = ConfigurationHelper.getString(LISTENER, configurationValues);
+		final long leakThreshold = ConfigurationHelper.getLong(LEAK_DETECTION_THRESHOLD, configurationValues, 0);
+
+		PoolListener listener = null;
+		if (listenerClass != null) {
+			try {
+				listener = (PoolListener)Class.forName(listenerClass).getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | ClassCastException e) {
+				throw new HibernateException("Could not create pool listener " + listenerClass, e);
+			}
+		}
+
+		if (leakThreshold > 0)
+			log.info("Connection leak detection threshold: " + leakThreshold + "ms");
+
+		return new PoolMetrics(gauges, listener, leakThreshold);
+	}
+
+	/**
+	 * @return the metrics for the connection provider behind the factory
+	 * @throws org.hibernate.service.UnknownUnwrapTypeException if it isn't one of ours
+	 */
+	public static PoolMetrics of(final EntityManagerFactory emf) {
+		return emf.unwrap(SessionFactoryImplementor.class)
+				.getServiceRegistry()
+				.getService(ConnectionProvider.class)
+				.unwrap(PoolMetrics.class);
+	}
+
+	public int getActive() {
+		return gauges.active();
+	}
+
+	public int getIdle() {
+		return gauges.idle();
+	}
+
+	public int getWaiting() {
+		return gauges.waiting();
+	}
+
+	/** @return the most connections the pool will open */
+	public int getMax() {
+		return gauges.max();
+	}
+
+	public long getExhaustedCount() {
+		return exhausted.sum();
+	}
+
+	public long getLeakCount() {
+		return leaks.sum();
+	}
+
+	/** Record a successful borrow; hand the lease back to {@link #returned(Lease)} */
+	public Lease borrowed(final long waitNanos) {
+		borrowWait.record(waitNanos);
+		listener.borrowed(waitNanos);
+
+		final Lease lease = new Lease();
+		if (leakThresholdNanos > 0) {
+			final Throwable borrowSite = new Exception("Connection borrowed here");
+			lease.leakCheck = LEAK_DETECTOR.schedule(() -> leaked(lease, borrowSite), leakThresholdNanos, TimeUnit.NANOSECONDS);
+		}
+
+		return lease;
+	}
+
+	public void returned(final Lease lease) {
+		if (lease.leakCheck != null)
+			lease.leakCheck.cancel(false);
+
+		final long held = System.nanoTime() - lease.start;
+		holdTime.record(held);
+		listener.returned(held);
+	}
+
+	public void exhausted(final long waitNanos) {
+		exhausted.increment();
+		listener.exhausted(waitNanos);
+	}
+
+	private void leaked(final Lease lease, final Throwable borrowSite) {
+		final long held = System.nanoTime() - lease.start;
+		leaks.increment();
+
+		log.warn("Connection held for " + TimeUnit.NANOSECONDS.toMillis(held) + "ms, possible leak", borrowSite);
+		listener.leaked(held, borrowSite);
+	}
+}
@@ -0,0 +1,350 @@
+package com.voodoodyne.postguice.pool;
+
+import java.sql.Array;
+import java.sql.Blob;
+import java.sql.CallableStatement;
+import java.sql.ClientInfoStatus;
+import java.sql.Clob;
+import java.sql.Connection;
+import java.sql.DatabaseMetaData;
+import java.sql.NClob;
+import java.sql.PreparedStatement;
+import java.sql.SQLClientInfoException;
+import java.sql.SQLException;
+import java.sql.SQLWarning;
+import java.sql.SQLXML;
+import java.sql.Savepoint;
+import java.sql.Statement;
+import java.sql.Struct;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+
+/**
+ * The handle given out for a borrowed {@link PoolEntry}. Closing it returns the entry to the pool. Autocommit,
+ * isolation, and read-only go through the entry's tracked state so that redundant driver calls are skipped;
+ * everything else passes straight through.
+ */
+final class PooledConnection implements Connection {
+	private final PostguiceConnectionProvider pool;
+	private final PoolEntry entry;
+
+	/** Null once closed */
+	private Connection delegate;
+
+	/** Set by the pool once the connection is handed out */
+	PoolMetrics.Lease lease;
+
+	PooledConnection(final PostguiceConnectionProvider pool, final PoolEntry entry) {
+		this.pool = pool;
+		this.entry = entry;
+		this.delegate = entry.connection;
+	}
+
+	private Connection raw() throws SQLException {
+		if (delegate == null)
+			throw new SQLException("Connection is closed");
+
+		return delegate;
+	}
+
+	@Override
+	public void close() throws SQLException {
+		if (delegate != null) {
+			delegate = null;
+			pool.release(entry, lease);
+		}
+	}
+
+	@Override
+	public boolean isClosed() throws SQLException {
+		return delegate == null;
+	}
+
+	@Override
+	public void abort(final Executor executor) throws SQLException {
+		raw();
+		delegate = null;
+		pool.abort(entry, lease, executor);
+	}
+
+	@Override
+	public void setAutoCommit(final boolean autoCommit) throws SQLException {
+		raw();
+		if (entry.autoCommit != autoCommit) {
+			delegate.setAutoCommit(autoCommit);
+			entry.autoCommit = autoCommit;
+		}
+	}
+
+	@Override
+	public boolean getAutoCommit() throws SQLException {
+		raw();
+		return entry.autoCommit;
+	}
+
+	@Override
+	public void setTransactionIsolation(final int level) throws SQLException {
+		raw();
+		if (entry.isolation != level) {
+			delegate.setTransactionIsolation(level);
+			entry.isolation = level;
+		}
+	}
+
+	@Override
+	public int getTransactionIsolation() throws SQLException {
+		raw();
+		return entry.isolation;
+	}
+
+	@Override
+	public void setReadOnly(final boolean readOnly) throws SQLException {
+		raw();
+		if (entry.readOnly != readOnly) {
+			delegate.setReadOnly(readOnly);
+			entry.readOnly = readOnly;
+		}
+	}
+
+	@Override
+	public boolean isReadOnly() throws SQLException {
+		raw();
+		return entry.readOnly;
+	}
+
+	@Override
+	public void setClientInfo(final String name, final String value) throws SQLClientInfoException {
+		if (delegate == null)
+			throw new SQLClientInfoException("Connection is closed", Collections.<String, ClientInfoStatus>emptyMap());
+
+		delegate.setClientInfo(name, value);
+	}
+
+	@Override
+	public void setClientInfo(final Properties properties) throws SQLClientInfoException {
+		if (delegate == null)
+			throw new SQLClientInfoException("Connection is closed", Collections.<String, ClientInfoStatus>emptyMap());
+
+		delegate.setClientInfo(properties);
+	}
+
+	@Override
+	public <T> T unwrap(final Class<T> iface) throws SQLException {
+		if (iface.isInstance(this))
+			return iface.cast(this);
+
+		return raw().unwrap(iface);
+	}
+
+	@Override
+	public boolean isWrapperFor(final Class<?> iface) throws SQLException {
+		return iface.isInstance(this) || raw().isWrapperFor(iface);
+	}
+
+	@Override
+	public Statement createStatement() throws SQLException {
+		return raw().createStatement();
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(final String sql) throws SQLException {
+		return raw().prepareStatement(sql);
+	}
+
+	@Override
+	public CallableStatement prepareCall(final String sql) throws SQLException {
+		return raw().prepareCall(sql);
+	}
+
+	@Override
+	public String nativeSQL(final String sql) throws SQLException {
+		return raw().nativeSQL(sql);
+	}
+
+	@Override
+	public void commit() throws SQLException {
+		raw().commit();
+	}
+
+	@Override
+	public void rollback() throws SQLException {
+		raw().rollback();
+	}
+
+	@Override
+	public DatabaseMetaData getMetaData() throws SQLException {
+		return raw().getMetaData();
+	}
+
+	@Override
+	public void setCatalog(final String catalog) throws SQLException {
+		raw().setCatalog(catalog);
+	}
+
+	@Override
+	public String getCatalog() throws SQLException {
+		return raw().getCatalog();
+	}
+
+	@Override
+	public SQLWarning getWarnings() throws SQLException {
+		return raw().getWarnings();
+	}
+
+	@Override
+	public void clearWarnings() throws SQLException {
+		raw().clearWarnings();
+	}
+
+	@Override
+	public Statement createStatement(final int resultSetType, final int resultSetConcurrency) throws SQLException {
+		return raw().createStatement(resultSetType, resultSetConcurrency);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(final String sql, final int resultSetType, final int resultSetConcurrency) throws SQLException {
+		return raw().prepareStatement(sql, resultSetType, resultSetConcurrency);
+	}
+
+	@Override
+	public CallableStatement prepareCall(final String sql, final int resultSetType, final int resultSetConcurrency) throws SQLException {
+		return raw().prepareCall(sql, resultSetType, resultSetConcurrency);
+	}
+
+	@Override
+	public Map<String, Class<?>> getTypeMap() throws SQLException {
+		return raw().getTypeMap();
+	}
+
+	@Override
+	public void setTypeMap(final Map<String, Class<?>> map) throws SQLException {
+		raw().setTypeMap(map);
+	}
+
+	@Override
+	public void setHoldability(final int holdability) throws SQLException {
+		raw().setHoldability(holdability);
+	}
+
+	@Override
+	public int getHoldability() throws SQLException {
+		return raw().getHoldability();
+	}
+
+	@Override
+	public Savepoint setSavepoint() throws SQLException {
+		return raw().setSavepoint();
+	}
+
+	@Override
+	public Savepoint setSavepoint(final String name) throws SQLException {
+		return raw().setSavepoint(name);
+	}
+
+	@Override
+	public void rollback(final Savepoint savepoint) throws SQLException {
+		raw().rollback(savepoint);
+	}
+
+	@Override
+	public void releaseSavepoint(final Savepoint savepoint) throws SQLException {
+		raw().releaseSavepoint(savepoint);
+	}
+
+	@Override
+	public Statement createStatement(final int resultSetType, final int resultSetConcurrency, final int resultSetHoldability) throws SQLException {
+		return raw().createStatement(resultSetType, resultSetConcurrency, resultSetHoldability);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(final String sql, final int resultSetType, final int resultSetConcurrency, final int resultSetHoldability) throws SQLException {
+		return raw().prepareStatement(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+	}
+
+	@Override
+	public CallableStatement prepareCall(final String sql, final int resultSetType, final int resultSetConcurrency, final int resultSetHoldability) throws SQLException {
+		return raw().prepareCall(sql, resultSetType, resultSetConcurrency, resultSetHoldability);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(final String sql, final int autoGeneratedKeys) throws SQLException {
+		return raw().prepareStatement(sql, autoGeneratedKeys);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(final String sql, final int[] columnIndexes) throws SQLException {
+		return raw().prepareStatement(sql, columnIndexes);
+	}
+
+	@Override
+	public PreparedStatement prepareStatement(final String sql, final String[] columnNames) throws SQLException {
+		return raw().prepareStatement(sql, columnNames);
+	}
+
+	@Override
+	public Clob createClob() throws SQLException {
+		return raw().createClob();
+	}
+
+	@Override
+	public Blob createBlob() throws SQLException {
+		return raw().createBlob();
+	}
+
+	@Override
+	public NClob createNClob() throws SQLException {
+		return raw().createNClob();
+	}
+
+	@Override
+	public SQLXML createSQLXML() throws SQLException {
+		return raw().createSQLXML();
+	}
+
+	@Override
+	public boolean isValid(final int timeout) throws SQLException {
+		return raw().isValid(timeout);
+	}
+
+	@Override
+	public String getClientInfo(final String name) throws SQLException {
+		return raw().getClientInfo(name);
+	}
+
+	@Override
+	public Properties getClientInfo() throws SQLException {
+		return raw().getClientInfo();
+	}
+
+	@Override
+	public Array createArrayOf(final String typeName, final Object[] elements) throws SQLException {
+		return raw().createArrayOf(typeName, elements);
+	}
+
+	@Override
+	public Struct createStruct(final String typeName, final Object[] elements) throws SQLException {
+		return raw().createStruct(typeName, elements);
+	}
+
+	@Override
+	public void setSchema(final String schema) throws SQLException {
+		raw().setSchema(schema);
+	}
+
+	@Override
+	public String getSchema() throws SQLException {
+		return raw().getSchema();
+	}
+
+	@Override
+	public void setNetworkTimeout(final Executor executor, final int milliseconds) throws SQLException {
+		raw().setNetworkTimeout(executor, milliseconds);
+	}
+
+	@Override
+	public int getNetworkTimeout() throws SQLException {
+		return raw().getNetworkTimeout();
+	}
+}
@@ -0,0 +1,339 @@
+package com.voodoodyne.postguice.pool;
+
+import lombok.Getter;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.HibernateException;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.jdbc.connections.internal.ConnectionProviderInitiator;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>A lean connection pool in the style of HikariCP. Borrowing is lock-free: a thread usually gets back the
+ * connection it returned last, and otherwise claims an idle one with a CAS or waits for a direct handoff.
+ * Connections are validated with {@link Connection#isValid(int)} only when they have sat idle longer than
+ * the idle validation threshold. Autocommit, isolation, and readOnly are tracked per connection so the driver
+ * is only called when a value actually changes. Isolation and readOnly are put back to their defaults (the
+ * configured isolation, if any) when a borrower changes them, so nothing leaks to the next borrower.</p>
+ *
+ * <p>Connections are created on demand, up to the maximum size. Settings have the defaults below and
+ * can be overridden by a subclass or through these properties in {@code DatabaseConfig.getProperties()}:</p>
+ *
+ * <ul>
+ *     <li>{@value #MAX_SIZE} - maximum number of connections</li>
+ *     <li>{@value #CONNECTION_TIMEOUT} - milliseconds to wait for a connection before failing</li>
+ *     <li>{@value #IDLE_VALIDATION_THRESHOLD} - milliseconds idle after which a connection is validated on borrow</li>
+ *     <li>{@value #VALIDATION_TIMEOUT} - milliseconds to allow for validation</li>
+ *     <li>{@value #MAX_LIFETIME} - milliseconds after which a connection is retired</li>
+ * </ul>
+ *
+ * <p>See {@link PoolMetrics} for instrumentation and leak detection.</p>
+ *
+ * <pre>
+ * {@code
+ *  <property name="hibernate.connection.provider_class" value="com.voodoodyne.postguice.pool.PostguiceConnectionProvider" />
+ * }
+ * </pre>
+ */
+@Slf4j
+public class PostguiceConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String MAX_SIZE = "postguice.pool.maxSize";
+	public static final String CONNECTION_TIMEOUT = "postguice.pool.connectionTimeout";
+	public static final String IDLE_VALIDATION_THRESHOLD = "postguice.pool.idleValidationThreshold";
+	public static final String VALIDATION_TIMEOUT = "postguice.pool.validationTimeout";
+	public static final String MAX_LIFETIME = "postguice.pool.maxLifetime";
+
+	@Getter @Setter
+	private int maxSize = 20;
+	@Getter @Setter
+	private long connectionTimeout = 30000;
+	@Getter @Setter
+	private long idleValidationThreshold = 500;
+	@Getter @Setter
+	private long validationTimeout = 5000;
+	@Getter @Setter
+	private long maxLifetime = 1800000;
+
+	private final ConnectionBag bag = new ConnectionBag();
+	private final AtomicInteger total = new AtomicInteger();
+
+	private String url;
+	private Properties connectionProps;
+	private Integer isolation;
+	private PoolMetrics metrics;
+
+	private volatile boolean shutdown;
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		final long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(connectionTimeout);
+		final long start = System.nanoTime();
+
+		long remaining = timeoutNanos;
+		do {
+			if (shutdown)
+				throw new SQLException("Connection pool has been shut down");
+
+			final PoolEntry entry = borrow(remaining);
+			if (entry == null)
+				break;
+
+			if (isUsable(entry)) {
+				try {
+					final PooledConnection connection = prepare(entry);
+					connection.lease = metrics.borrowed(System.nanoTime() - start);
+					return connection;
+				} catch (SQLException e) {
+					log.debug("Discarding connection that failed to reset", e);
+				}
+			}
+
+			retire(entry);
+			remaining = timeoutNanos - (System.nanoTime() - start);
+		} while (remaining > 0);
+
+		metrics.exhausted(System.nanoTime() - start);
+		throw new SQLTransientConnectionException("Connection is not available, request timed out after " + connectionTimeout + "ms");
+	}
+
+	private PoolEntry borrow(final long timeoutNanos) throws SQLException {
+		try {
+			return bag.borrow(timeoutNanos, TimeUnit.NANOSECONDS, this::create);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection", e);
+		} catch (SQLException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new SQLException(e);
+		}
+	}
+
+	/** @return a new entry already in use, or null if the pool is full */
+	private PoolEntry create() throws SQLException {
+		while (true) {
+			final int count = total.get();
+			if (count >= maxSize)
+				return null;
+
+			if (total.compareAndSet(count, count + 1))
+				break;
+		}
+
+		try {
+			final Connection connection = DriverManager.getConnection(url, connectionProps);
+			if (isolation != null)
+				connection.setTransactionIsolation(isolation);
+
+			final PoolEntry entry = new PoolEntry(connection, connection.getAutoCommit(), connection.getTransactionIsolation(), connection.isReadOnly());
+			entry.setState(PoolEntry.IN_USE);
+			bag.add(entry);
+			return entry;
+		} catch (SQLException | RuntimeException e) {
+			total.decrementAndGet();
+			throw e;
+		}
+	}
+
+	private boolean isUsable(final PoolEntry entry) {
+		final long now = System.nanoTime();
+
+		if (now - entry.createdAt > TimeUnit.MILLISECONDS.toNanos(maxLifetime))
+			return false;
+
+		if (now - entry.lastReturned > TimeUnit.MILLISECONDS.toNanos(idleValidationThreshold)) {
+			try {
+				return entry.connection.isValid((int)Math.max(1, TimeUnit.MILLISECONDS.toSeconds(validationTimeout)));
+			} catch (SQLException e) {
+				log.debug("Connection failed validation", e);
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/** Bring the connection into the state hibernate expects; a no-op unless something changed */
+	private PooledConnection prepare(final PoolEntry entry) throws SQLException {
+		final PooledConnection connection = new PooledConnection(this, entry);
+		connection.setAutoCommit(false);
+
+		return connection;
+	}
+
+	/** Called when a pooled connection is closed */
+	void release(final PoolEntry entry, final PoolMetrics.Lease lease) {
+		metrics.returned(lease);
+
+		try {
+			// Only costs a round trip if the borrower left a transaction open
+			if (!entry.autoCommit)
+				entry.connection.rollback();
+
+			if (entry.isDirty())
+				restoreDefaults(entry);
+		} catch (SQLException e) {
+			log.debug("Discarding connection that failed to reset", e);
+			retire(entry);
+			return;
+		}
+
+		entry.lastReturned = System.nanoTime();
+
+		if (shutdown)
+			retire(entry);
+		else
+			bag.requite(entry);
+	}
+
+	/** Undo whatever the borrower changed, like HikariCP's dirty bits; only called outside a transaction */
+	private static void restoreDefaults(final PoolEntry entry) throws SQLException {
+		if (entry.isolation != entry.defaultIsolation) {
+			entry.connection.setTransactionIsolation(entry.defaultIsolation);
+			entry.isolation = entry.defaultIsolation;
+		}
+		if (entry.readOnly != entry.defaultReadOnly) {
+			entry.connection.setReadOnly(entry.defaultReadOnly);
+			entry.readOnly = entry.defaultReadOnly;
+		}
+	}
+
+	/** Called when a pooled connection is aborted */
+	void abort(final PoolEntry entry, final PoolMetrics.Lease lease, final Executor executor) throws SQLException {
+		metrics.returned(lease);
+
+		if (bag.remove(entry)) {
+			total.decrementAndGet();
+			entry.connection.abort(executor);
+		}
+	}
+
+	private void retire(final PoolEntry entry) {
+		if (bag.remove(entry)) {
+			total.decrementAndGet();
+
+			try {
+				entry.connection.close();
+			} catch (SQLException e) {
+				log.debug("Error closing retired connection", e);
+			}
+		}
+	}
+
+	@Override
+	public void closeConnection(final Connection conn) throws SQLException {
+		conn.close();
+	}
+
+	@Override
+	public void configure(@SuppressWarnings("rawtypes") final Map configurationValues) {
+		final String jdbcDriverClass = (String) configurationValues.get(Environment.DRIVER);
+		url = (String) configurationValues.get(Environment.URL);
+
+		log.info("Postguice pool using driver: " + jdbcDriverClass + " at URL: " + url);
+
+		if (jdbcDriverClass == null) {
+			log.warn("No JDBC Driver class was specified by property " + Environment.DRIVER);
+		} else {
+			try {
+				Class.forName(jdbcDriverClass);
+			} catch (ClassNotFoundException e) {
+				final String msg = "JDBC Driver class not found: " + jdbcDriverClass;
+				log.error(msg);
+				throw new HibernateException(msg);
+			}
+		}
+
+		maxSize = ConfigurationHelper.getInt(MAX_SIZE, configurationValues, maxSize);
+		connectionTimeout = ConfigurationHelper.getLong(CONNECTION_TIMEOUT, configurationValues, (int)connectionTimeout);
+		idleValidationThreshold = ConfigurationHelper.getLong(IDLE_VALIDATION_THRESHOLD, configurationValues, (int)idleValidationThreshold);
+		validationTimeout = ConfigurationHelper.getLong(VALIDATION_TIMEOUT, configurationValues, (int)validationTimeout);
+		maxLifetime = ConfigurationHelper.getLong(MAX_LIFETIME, configurationValues, (int)maxLifetime);
+
+		connectionProps = ConnectionProviderInitiator.getConnectionProperties(configurationValues);
+		final String user = (String) configurationValues.get(Environment.USER);
+		final String pass = (String) configurationValues.get(Environment.PASS);
+		if (user != null)
+			connectionProps.put("user", user);
+		if (pass != null)
+			connectionProps.put("password", pass);
+
+		metrics = PoolMetrics.configure(new PoolMetrics.Gauges() {
+			@Override
+			public int active() {
+				return total.get() - bag.countIdle();
+			}
+
+			@Override
+			public int idle() {
+				return bag.countIdle();
+			}
+
+			@Override
+			public int waiting() {
+				return bag.getWaiters();
+			}
+
+			@Override
+			public int max() {
+				return maxSize;
+			}
+		}, configurationValues);
+
+		isolation = ConnectionProviderInitiator.extractIsolation(configurationValues);
+		if (isolation != null) {
+			log.info("JDBC isolation level: " + ConnectionProviderInitiator.toIsolationNiceName(isolation));
+		}
+	}
+
+	@Override
+	public void stop() {
+		shutdown = true;
+
+		// Connections in use are retired as they come back
+		for (final PoolEntry entry : bag.values()) {
+			if (entry.compareAndSet(PoolEntry.NOT_IN_USE, PoolEntry.IN_USE))
+				retire(entry);
+		}
+	}
+
+	@Override
+	public boolean supportsAggressiveRelease() {
+		return false;
+	}
+
+	@Override
+	public boolean isUnwrappableAs(@SuppressWarnings("rawtypes") final Class unwrapType) {
+		return ConnectionProvider.class.equals(unwrapType) || PostguiceConnectionProvider.class.isAssignableFrom(unwrapType)
+				|| PoolMetrics.class.equals(unwrapType);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T unwrap(final Class<T> unwrapType) {
+		if (ConnectionProvider.class.equals(unwrapType) || PostguiceConnectionProvider.class.isAssignableFrom(unwrapType)) {
+			return (T) this;
+		}
+		if (PoolMetrics.class.equals(unwrapType)) {
+			return (T) this.metrics;
+		}
+		throw new UnknownUnwrapTypeException(unwrapType);
+	}
+}
@@ -0,0 +1,292 @@
+package com.voodoodyne.postguice.pool;
+
+import com.google.common.base.Splitter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.voodoodyne.postguice.Transactions;
+import lombok.extern.slf4j.Slf4j;
+import org.hibernate.cfg.Environment;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Configurable;
+import org.hibernate.service.spi.Stoppable;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * <p>Sends read-only transactions (see {@link Transactions#transactReadOnly}) to a pool of streaming replicas,
+ * round-robin, and everything else to the primary. Each database gets its own {@link PostguiceConnectionProvider}
+ * configured from the same properties.</p>
+ *
+ * <p>Replicas are checked periodically; one that is unreachable or lagging more than the maximum is taken out
+ * of rotation until it recovers. Lag is measured against the primary's current WAL position, so a replica that
+ * has lost its upstream falls behind like any other. A replica is also taken out of rotation when connecting to
+ * it fails, but not when its pool is merely exhausted. If no replica is usable, read-only work falls back to the
+ * primary. Connections handed out for read-only work are marked read-only, so writes fail even on the primary.
+ * The checks work with 9.6 as well as 10+, which renamed the xlog functions.</p>
+ *
+ * <p>This is installed automatically when {@code DatabaseConfig.getReplicaUrls()} is not empty. Properties:</p>
+ *
+ * <ul>
+ *     <li>{@value #REPLICA_URLS} - comma-separated replica JDBC urls</li>
+ *     <li>{@value #MAX_LAG} - milliseconds of replay lag after which a replica is not used (default 10000)</li>
+ *     <li>{@value #CHECK_INTERVAL} - milliseconds between health checks (default 5000)</li>
+ * </ul>
+ */
+@Slf4j
+public class RoutingConnectionProvider implements ConnectionProvider, Configurable, Stoppable {
+
+	private static final long serialVersionUID = 1L;
+
+	public static final String REPLICA_URLS = "postguice.replica.urls";
+	public static final String MAX_LAG = "postguice.replica.maxLag";
+	public static final String CHECK_INTERVAL = "postguice.replica.checkInterval";
+
+	private static final String VERSION_QUERY = "select current_setting('server_version_num')::int";
+
+	/** Postgres 10 renamed the xlog functions; a streaming replica always runs the primary's major version */
+	private static final int WAL_FUNCTIONS_VERSION = 100000;
+
+	/** Format with pg_current_wal_lsn or (9.6) pg_current_xlog_location */
+	private static final String PRIMARY_LSN_QUERY = "select %s()::text";
+
+	/**
+	 * Zero if the replica has replayed everything the primary had written when we asked it (a replica that has lost
+	 * its upstream receives nothing new, so comparing against its own receive position would always say zero).
+	 * Otherwise the age of the last replayed transaction, or null if it hasn't replayed any. Format with
+	 * pg_last_wal_replay_lsn or (9.6) pg_last_xlog_replay_location.
+	 */
+	private static final String LAG_QUERY = "select case when not pg_is_in_recovery() or %s() >= ?::pg_lsn then 0"
+			+ " else extract(epoch from now() - pg_last_xact_replay_timestamp()) * 1000 end";
+
+	/** SQLState prefixes for failing to reach the database: connection_exception, and shutdown or cannot_connect_now */
+	private static final String[] CONNECTION_FAILURE_STATES = { "08", "57P" };
+
+	private static class Replica {
+		final String url;
+		final PostguiceConnectionProvider pool;
+		volatile boolean healthy = true;
+
+		Replica(final String url, final PostguiceConnectionProvider pool) {
+			this.url = url;
+			this.pool = pool;
+		}
+	}
+
+	private PostguiceConnectionProvider primary;
+	private final List<Replica> replicas = new ArrayList<>();
+	private final AtomicInteger next = new AtomicInteger();
+
+	private long maxLag;
+	private ScheduledExecutorService checker;
+
+	/** Chosen from the primary's version on the first check; only touched by the checker thread */
+	private String primaryLsnQuery;
+	private String lagQuery;
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		final boolean readOnly = Transactions.isReadOnly();
+		final Connection connection = readOnly ? replicaConnection() : primary.getConnection();
+
+		try {
+			// The pool puts readOnly back on return; with autocommit off pgjdbc just records it for the next BEGIN
+			connection.setReadOnly(readOnly);
+		} catch (SQLException e) {
+			connection.close();
+			throw e;
+		}
+
+		return connection;
+	}
+
+	/** Try each healthy replica once, starting from the next in rotation, then give up and use the primary */
+	private Connection replicaConnection() throws SQLException {
+		final int start = next.getAndIncrement();
+
+		for (int i = 0; i < replicas.size(); i++) {
+			final Replica replica = replicas.get(Math.floorMod(start + i, replicas.size()));
+			if (!replica.healthy)
+				continue;
+
+			try {
+				return replica.pool.getConnection();
+			} catch (SQLException e) {
+				// A busy replica (its pool timed out) is still healthy; just try the next one
+				if (isConnectionFailure(e)) {
+					log.warn("Taking replica " + replica.url + " out of rotation", e);
+					replica.healthy = false;
+				} else {
+					log.debug("Replica " + replica.url + " could not provide a connection", e);
+				}
+			}
+		}
+
+		return primary.getConnection();
+	}
+
+	private static boolean isConnectionFailure(final SQLException e) {
+		final String state = e.getSQLState();
+		if (state == null)
+			return false;
+
+		for (final String prefix : CONNECTION_FAILURE_STATES) {
+			if (state.startsWith(prefix))
+				return true;
+		}
+
+		return false;
+	}
+
+	/** Check every replica against the primary's current position; if the primary can't be asked, nothing changes */
+	private void checkAll() {
+		final String primaryLsn;
+		try {
+			primaryLsn = primaryLsn();
+		} catch (SQLException | RuntimeException e) {
+			log.warn("Could not read the primary's WAL position; skipping replica health checks", e);
+			return;
+		}
+
+		replicas.forEach(replica -> check(replica, primaryLsn));
+	}
+
+	private String primaryLsn() throws SQLException {
+		final Connection connection = primary.getConnection();
+		try {
+			if (primaryLsnQuery == null)
+				chooseQueries(connection);
+
+			try (final PreparedStatement stmt = connection.prepareStatement(primaryLsnQuery);
+				 final ResultSet rs = stmt.executeQuery()) {
+				rs.next();
+				return rs.getString(1);
+			}
+		} finally {
+			primary.closeConnection(connection);
+		}
+	}
+
+	private void chooseQueries(final Connection connection) throws SQLException {
+		try (final PreparedStatement stmt = connection.prepareStatement(VERSION_QUERY);
+			 final ResultSet rs = stmt.executeQuery()) {
+			rs.next();
+			final boolean wal = rs.getInt(1) >= WAL_FUNCTIONS_VERSION;
+
+			lagQuery = String.format(LAG_QUERY, wal ? "pg_last_wal_replay_lsn" : "pg_last_xlog_replay_location");
+			primaryLsnQuery = String.format(PRIMARY_LSN_QUERY, wal ? "pg_current_wal_lsn" : "pg_current_xlog_location");
+		}
+	}
+
+	private void check(final Replica replica, final String primaryLsn) {
+		try {
+			final Connection connection = replica.pool.getConnection();
+			try (final PreparedStatement stmt = connection.prepareStatement(lagQuery)) {
+				stmt.setString(1, primaryLsn);
+
+				try (final ResultSet rs = stmt.executeQuery()) {
+					rs.next();
+					final long lag = rs.getLong(1);
+					final boolean healthy = !rs.wasNull() && lag <= maxLag;
+
+					if (healthy != replica.healthy)
+						log.warn("Replica " + replica.url + (healthy ? " is back in rotation" : " is out of rotation") + ", lag " + (rs.wasNull() ? "unknown" : lag + "ms"));
+
+					replica.healthy = healthy;
+				}
+			} finally {
+				replica.pool.closeConnection(connection);
+			}
+		} catch (SQLTransientConnectionException e) {
+			log.debug("Replica " + replica.url + " is too busy to check", e);
+		} catch (SQLException | RuntimeException e) {
+			if (replica.healthy)
+				log.warn("Replica " + replica.url + " failed its health check, taking it out of rotation", e);
+
+			replica.healthy = false;
+		}
+	}
+
+	/** Override to customize the pools */
+	protected PostguiceConnectionProvider createPool() {
+		return new PostguiceConnectionProvider();
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void configure(@SuppressWarnings("rawtypes") final Map configurationValues) {
+		primary = createPool();
+		primary.configure(configurationValues);
+
+		final String urls = ConfigurationHelper.getString(REPLICA_URLS, configurationValues, "");
+		for (final String url : Splitter.on(',').trimResults().omitEmptyStrings().split(urls)) {
+			final Map<Object, Object> replicaValues = new HashMap<>(configurationValues);
+			replicaValues.put(Environment.URL, url);
+
+			final PostguiceConnectionProvider pool = createPool();
+			pool.configure(replicaValues);
+			replicas.add(new Replica(url, pool));
+		}
+
+		maxLag = ConfigurationHelper.getLong(MAX_LAG, configurationValues, 10000);
+		final long interval = ConfigurationHelper.getLong(CHECK_INTERVAL, configurationValues, 5000);
+
+		if (!replicas.isEmpty()) {
+			checker = Executors.newSingleThreadScheduledExecutor(
+					new ThreadFactoryBuilder().setDaemon(true).setNameFormat("postguice-replica-check").build());
+			checker.scheduleWithFixedDelay(this::checkAll, interval, interval, TimeUnit.MILLISECONDS);
+		}
+
+		log.info("Routing read-only transactions to " + replicas.size() + " replicas");
+	}
+
+	@Override
+	public void stop() {
+		if (checker != null)
+			checker.shutdownNow();
+
+		primary.stop();
+		replicas.forEach(replica -> replica.pool.stop());
+	}
+
+	@Override
+	public void closeConnection(final Connection conn) throws SQLException {
+		conn.close();
+	}
+
+	@Override
+	public boolean supportsAggressiveRelease() {
+		return false;
+	}
+
+	@Override
+	public boolean isUnwrappableAs(@SuppressWarnings("rawtypes") final Class unwrapType) {
+		return ConnectionProvider.class.equals(unwrapType) || RoutingConnectionProvider.class.isAssignableFrom(unwrapType)
+				|| PoolMetrics.class.equals(unwrapType);
+	}
+
+	/** PoolMetrics are for the primary */
+	@Override
+	@SuppressWarnings("unchecked")
+	public <T> T unwrap(final Class<T> unwrapType) {
+		if (ConnectionProvider.class.equals(unwrapType) || RoutingConnectionProvider.class.isAssignableFrom(unwrapType)) {
+			return (T) this;
+		}
+		if (PoolMetrics.class.equals(unwrapType)) {
+			return primary.unwrap(unwrapType);
+		}
+		throw new UnknownUnwrapTypeException(unwrapType);
+	}
+}
@@ -0,0 +1,20 @@
+package com.voodoodyne.postguice.trace;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Logs flagged transactions at WARN, and all of them at DEBUG.
+ */
+@Slf4j
+public class LoggingTraceSink implements TraceSink {
+	@Override
+	public void completed(final TransactionTrace trace) {
+		if (log.isDebugEnabled() && !trace.isFlagged())
+			log.debug(trace.toString());
+	}
+
+	@Override
+	public void flagged(final TransactionTrace trace) {
+		log.warn("Transaction from {} flagged {}: {}", trace.getCallSite(), trace.getFlags(), trace);
+	}
+}
@@ -0,0 +1,17 @@
+package com.voodoodyne.postguice.trace;
+
+import com.google.inject.ImplementedBy;
+
+/**
+ * Receives transaction traces when tracing is turned on with {@code PostguiceModule.traced()}. Bind your own
+ * implementation to send them to your metrics system; the default just logs. Callbacks happen on the thread
+ * that ran the transaction, after it completes, so they should be cheap.
+ */
+@ImplementedBy(LoggingTraceSink.class)
+public interface TraceSink {
+	/** Every traced transaction */
+	default void completed(final TransactionTrace trace) {}
+
+	/** Transactions over one of the thresholds in {@link Tracing}; these are also passed to completed() */
+	default void flagged(final TransactionTrace trace) {}
+}
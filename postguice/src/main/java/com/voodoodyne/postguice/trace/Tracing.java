@@ -0,0 +1,193 @@
+package com.voodoodyne.postguice.trace;
+
+import com.google.common.collect.ImmutableList;
+import com.voodoodyne.postguice.DatabaseConfig;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.inject.Inject;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * <p>Per-transaction tracing, turned on with {@code PostguiceModule.traced()}. Every transaction started through
+ * {@link com.voodoodyne.postguice.Transactions} is measured, and the results go to the bound {@link TraceSink}.
+ * Transactions started by calling a {@code @Transactional} method directly are not traced; guice-persist
+ * gives us no hook there.</p>
+ *
+ * <p>A transaction is flagged when it crosses any of these thresholds in {@link DatabaseConfig#getProperties()}:</p>
+ *
+ * <ul>
+ *     <li>{@value #SLOW_MILLIS} - total time (default {@value #DEFAULT_SLOW_MILLIS})</li>
+ *     <li>{@value #MAX_STATEMENTS} - statements executed (default {@value #DEFAULT_MAX_STATEMENTS})</li>
+ *     <li>{@value #MAX_REPEATS} - executions of the same SQL, the signature of an N+1
+ *         (default {@value #DEFAULT_MAX_REPEATS})</li>
+ * </ul>
+ *
+ * <p>Flagged traces carry the call site that started the transaction. Finding it means walking the stack, so
+ * it's only done for flagged traces.</p>
+ */
+@Slf4j
+public class Tracing {
+	public static final String SLOW_MILLIS = "postguice.trace.slowMillis";
+	public static final String MAX_STATEMENTS = "postguice.trace.maxStatements";
+	public static final String MAX_REPEATS = "postguice.trace.maxRepeats";
+
+	public static final int DEFAULT_SLOW_MILLIS = 1000;
+	public static final int DEFAULT_MAX_STATEMENTS = 100;
+	public static final int DEFAULT_MAX_REPEATS = 10;
+
+	/** Frames from these packages are never the call site */
+	private static final String[] FRAMEWORK_PACKAGES = {
+			"com.voodoodyne.postguice.", "com.google.inject.", "org.hibernate.", "java.", "javax.", "sun.", "jdk."
+	};
+
+	private static final ThreadLocal<Collector> current = new ThreadLocal<>();
+
+	private static volatile TraceSink sink;
+	private static long slowNanos;
+	private static int maxStatements;
+	private static int maxRepeats;
+
+	/** Called by static injection when tracing is turned on */
+	@Inject
+	static void install(final TraceSink traceSink, final DatabaseConfig cfg) {
+		slowNanos = TimeUnit.MILLISECONDS.toNanos(cfg.getIntProperty(SLOW_MILLIS, DEFAULT_SLOW_MILLIS));
+		maxStatements = cfg.getIntProperty(MAX_STATEMENTS, DEFAULT_MAX_STATEMENTS);
+		maxRepeats = cfg.getIntProperty(MAX_REPEATS, DEFAULT_MAX_REPEATS);
+		sink = traceSink;
+	}
+
+	/** @return true if transactions are being traced */
+	public static boolean isEnabled() {
+		return sink != null;
+	}
+
+	/** @return true if a trace is running on this thread */
+	public static boolean isTracing() {
+		return current.get() != null;
+	}
+
+	/** The trace running on this thread, or null */
+	static Collector current() {
+		return current.get();
+	}
+
+	/**
+	 * Run a transaction, tracing it unless a trace is already running on this thread. The work must start
+	 * and finish the transaction.
+	 */
+	@SneakyThrows
+	public static <R> R trace(final Callable<R> transaction) {
+		if (current.get() != null)
+			return transaction.call();
+
+		final Collector collector = new Collector();
+		current.set(collector);
+		try {
+			return transaction.call();
+		} finally {
+			current.remove();
+			report(collector.finish());
+		}
+	}
+
+	private static void report(final TransactionTrace trace) {
+		try {
+			sink.completed(trace);
+			if (trace.isFlagged())
+				sink.flagged(trace);
+		} catch (RuntimeException e) {
+			log.warn("Trace sink failed", e);
+		}
+	}
+
+	/** Only called for flagged traces */
+	private static String callSite() {
+		for (final StackTraceElement frame : new Throwable().getStackTrace()) {
+			if (!isFramework(frame.getClassName()))
+				return frame.toString();
+		}
+
+		return "unknown";
+	}
+
+	private static boolean isFramework(final String className) {
+		if (className.contains("$$EnhancerByGuice$$"))
+			return true;
+
+		for (final String pkg : FRAMEWORK_PACKAGES) {
+			if (className.startsWith(pkg))
+				return true;
+		}
+
+		return false;
+	}
+
+	/**
+	 * Accumulates one transaction's events; only ever touched by the thread running it.
+	 */
+	static class Collector {
+		private final long start = System.nanoTime();
+
+		private long jdbcNanos;
+		private long flushNanos;
+		private long dirtyCheckNanos;
+		private int statements;
+		private int entities;
+		private boolean committed;
+
+		private final Map<String, Integer> sqlCounts = new HashMap<>();
+
+		void jdbc(final long nanos, final boolean executed) {
+			jdbcNanos += nanos;
+			if (executed)
+				statements++;
+		}
+
+		void sql(final String sql) {
+			sqlCounts.merge(sql, 1, Integer::sum);
+		}
+
+		void flush(final long nanos, final int entities) {
+			flushNanos += nanos;
+			this.entities = entities;
+		}
+
+		void dirtyCheck(final long nanos) {
+			dirtyCheckNanos += nanos;
+		}
+
+		void completed(final boolean successful) {
+			committed = successful;
+		}
+
+		TransactionTrace finish() {
+			final long totalNanos = System.nanoTime() - start;
+
+			String mostRepeatedSql = null;
+			int mostRepeatedCount = 0;
+			for (final Map.Entry<String, Integer> entry : sqlCounts.entrySet()) {
+				if (entry.getValue() > mostRepeatedCount) {
+					mostRepeatedSql = entry.getKey();
+					mostRepeatedCount = entry.getValue();
+				}
+			}
+
+			final ImmutableList.Builder<String> flags = ImmutableList.builder();
+			if (totalNanos > slowNanos)
+				flags.add("slow");
+			if (statements > maxStatements)
+				flags.add("statements");
+			if (mostRepeatedCount > maxRepeats)
+				flags.add("repeats");
+			final List<String> flagList = flags.build();
+
+			return new TransactionTrace(totalNanos, jdbcNanos, flushNanos, dirtyCheckNanos, statements, sqlCounts.size(),
+					mostRepeatedSql, mostRepeatedCount, entities, committed, flagList, flagList.isEmpty() ? null : callSite());
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package com.voodoodyne.postguice.trace;
+
+import org.hibernate.BaseSessionEventListener;
+
+/**
+ * Created by hibernate for every session; forwards timings to whatever trace is running on this thread.
+ */
+public class TracingSessionListener extends BaseSessionEventListener {
+	private static final long serialVersionUID = -5280517395741376312L;
+
+	private long jdbcStart;
+	private long flushStart;
+	private long dirtyCheckStart;
+
+	@Override
+	public void jdbcPrepareStatementStart() {
+		jdbcStart = System.nanoTime();
+	}
+
+	@Override
+	public void jdbcPrepareStatementEnd() {
+		final Tracing.Collector trace = Tracing.current();
+		if (trace != null)
+			trace.jdbc(System.nanoTime() - jdbcStart, false);
+	}
+
+	@Override
+	public void jdbcExecuteStatementStart() {
+		jdbcStart = System.nanoTime();
+	}
+
+	@Override
+	public void jdbcExecuteStatementEnd() {
+		final Tracing.Collector trace = Tracing.current();
+		if (trace != null)
+			trace.jdbc(System.nanoTime() - jdbcStart, true);
+	}
+
+	@Override
+	public void jdbcExecuteBatchStart() {
+		jdbcStart = System.nanoTime();
+	}
+
+	@Override
+	public void jdbcExecuteBatchEnd() {
+		final Tracing.Collector trace = Tracing.current();
+		if (trace != null)
+			trace.jdbc(System.nanoTime() - jdbcStart, true);
+	}
+
+	@Override
+	public void flushStart() {
+		flushStart = System.nanoTime();
+	}
+
+	@Override
+	public void flushEnd(final int numberOfEntities, final int numberOfCollections) {
+		final Tracing.Collector trace = Tracing.current();
+		if (trace != null)
+			trace.flush(System.nanoTime() - flushStart, numberOfEntities);
+	}
+
+	@Override
+	public void partialFlushStart() {
+		flushStart = System.nanoTime();
+	}
+
+	@Override
+	public void partialFlushEnd(final int numberOfEntities, final int numberOfCollections) {
+		flushEnd(numberOfEntities, numberOfCollections);
+	}
+
+	@Override
+	public void dirtyCalculationStart() {
+		dirtyCheckStart = System.nanoTime();
+	}
+
+	@Override
+	public void dirtyCalculationEnd(final boolean dirty) {
+		final Tracing.Collector trace = Tracing.current();
+		if (trace != null)
+			trace.dirtyCheck(System.nanoTime() - dirtyCheckStart);
+	}
+
+	@Override
+	public void transactionCompletion(final boolean successful) {
+		final Tracing.Collector trace = Tracing.current();
+		if (trace != null)
+			trace.completed(successful);
+	}
+}
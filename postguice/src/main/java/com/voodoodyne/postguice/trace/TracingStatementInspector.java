@@ -0,0 +1,19 @@
+package com.voodoodyne.postguice.trace;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+
+/**
+ * Counts repeats of each SQL string in the running trace, which is how N+1 selects show up. Never changes the SQL.
+ */
+public class TracingStatementInspector implements StatementInspector {
+	private static final long serialVersionUID = 2951350208315092717L;
+
+	@Override
+	public String inspect(final String sql) {
+		final Tracing.Collector trace = Tracing.current();
+		if (trace != null)
+			trace.sql(sql);
+
+		return sql;
+	}
+}
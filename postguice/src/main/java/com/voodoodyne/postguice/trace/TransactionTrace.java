@@ -0,0 +1,42 @@
+package com.voodoodyne.postguice.trace;
+
+import lombok.Value;
+
+import java.util.List;
+
+/**
+ * What one transaction did. Times are in nanoseconds. JDBC time covers preparing and executing statements
+ * and batches, not reading result sets; flush time includes dirty checking.
+ */
+@Value
+public class TransactionTrace {
+	long totalNanos;
+	long jdbcNanos;
+	long flushNanos;
+	long dirtyCheckNanos;
+
+	/** Statements executed, counting each batch once */
+	int statements;
+
+	/** Distinct SQL strings, so {@code statements - distinctStatements} were repeats */
+	int distinctStatements;
+
+	/** The SQL executed most often, and how many times; a large count usually means an N+1 */
+	String mostRepeatedSql;
+	int mostRepeatedCount;
+
+	/** Entities in the session at the last flush; roughly, the rows this transaction loaded or saved */
+	int entities;
+
+	boolean committed;
+
+	/** Why this trace was flagged; empty if it wasn't */
+	List<String> flags;
+
+	/** The first stack frame outside postguice, guice, and hibernate; only computed for flagged traces */
+	String callSite;
+
+	public boolean isFlagged() {
+		return !flags.isEmpty();
+	}
+}
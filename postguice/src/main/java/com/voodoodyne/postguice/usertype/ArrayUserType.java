@@ -0,0 +1,317 @@
+package com.voodoodyne.postguice.usertype;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.usertype.ParameterizedType;
+import org.hibernate.usertype.UserType;
+
+import java.io.Serializable;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Properties;
+
+/**
+ * <p>Base for usertypes that map one-dimensional Postgres arrays to Java arrays, primitive where possible.</p>
+ *
+ * <p>Values are decoded straight from the raw column bytes, never going through {@link java.sql.Array} or
+ * boxed elements. pgjdbc hands those bytes back in text format ({@code {1,2,3}}) until a statement has
+ * been prepared on the server, and in binary format after that for the types it supports; both are handled.
+ * Writes bind the Java array directly, which pgjdbc sends in binary for primitive arrays.</p>
+ *
+ * <p>Arrays are mutable, so by default values are copied on load for dirty checking. If you always replace
+ * rather than modify arrays, set the {@value #IMMUTABLE} type parameter to "true" to skip the copies.</p>
+ *
+ * @param <A> is the Java array type, eg {@code long[]}
+ */
+public abstract class ArrayUserType<A> implements UserType, ParameterizedType, PostgresTextType, Serializable {
+
+	private static final long serialVersionUID = 4209617349284318839L;
+
+	private static final int[] SQL_TYPES = new int[]{Types.ARRAY};
+
+	/** Type parameter which, set to "true", declares that arrays are never modified in place */
+	public static final String IMMUTABLE = "immutable";
+
+	private final Class<A> arrayClass;
+
+	private boolean immutable;
+
+	protected ArrayUserType(final Class<A> arrayClass) {
+		this.arrayClass = arrayClass;
+	}
+
+	/** @return a new array of the given length */
+	protected abstract A newArray(int length);
+
+	/** Decode one element in binary format; {@code length} bytes are available at the buffer's position */
+	protected abstract void readBinary(A array, int index, ByteBuffer data, int length);
+
+	/** Decode one element from its (unescaped) text representation */
+	protected abstract void readText(A array, int index, String text);
+
+	/** Decode one unquoted element straight from the column bytes; override to avoid creating a String */
+	protected void readText(final A array, final int index, final byte[] data, final int offset, final int length) {
+		readText(array, index, new String(data, offset, length, StandardCharsets.UTF_8));
+	}
+
+	/** Append one element in array literal syntax; use {@link #appendQuoted(String, StringBuilder)} for strings */
+	protected abstract void appendText(A array, int index, StringBuilder out);
+
+	/** Store a database NULL; primitive arrays can't, so by default this fails */
+	protected void readNull(final A array, final int index) {
+		throw new HibernateException("Array contains a NULL, which can't be represented in " + arrayClass.getSimpleName());
+	}
+
+	/** Bind a non-null value */
+	protected void bind(final PreparedStatement st, final int index, final A value) throws SQLException {
+		st.setObject(index, value);
+	}
+
+	@Override
+	public void setParameterValues(final Properties parameters) {
+		if (parameters != null)
+			this.immutable = Boolean.parseBoolean(parameters.getProperty(IMMUTABLE));
+	}
+
+	@Override
+	public Object assemble(Serializable cached, Object owner) throws HibernateException {
+		return copy(cached);
+	}
+
+	@Override
+	public Object deepCopy(Object value) throws HibernateException {
+		return immutable ? value : copy(value);
+	}
+
+	/** Elements are primitives or immutable objects, so a shallow copy is a deep copy */
+	private Object copy(final Object value) {
+		if (value == null)
+			return null;
+
+		final int length = Array.getLength(value);
+		final Object copy = Array.newInstance(arrayClass.getComponentType(), length);
+		System.arraycopy(value, 0, copy, 0, length);
+		return copy;
+	}
+
+	@Override
+	public Serializable disassemble(Object value) throws HibernateException {
+		return (Serializable)copy(value);
+	}
+
+	@Override
+	public boolean equals(Object x, Object y) throws HibernateException {
+		return Objects.deepEquals(x, y);
+	}
+
+	@Override
+	public int hashCode(Object x) throws HibernateException {
+		return Arrays.deepHashCode(new Object[] { x });
+	}
+
+	@Override
+	public boolean isMutable() {
+		return !immutable;
+	}
+
+	@Override
+	public Object nullSafeGet(final ResultSet rs, final String[] names, final SharedSessionContractImplementor session, final Object owner) throws HibernateException, SQLException {
+		// For anything but bytea, pgjdbc hands back the raw column bytes in whichever format they arrived
+		final byte[] value = rs.getBytes(names[0]);
+
+		if (value == null) {
+			return null;
+		} else if (value.length > 0 && (value[0] == '{' || value[0] == '[')) {
+			return decodeText(value);
+		} else {
+			return decodeBinary(value);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void nullSafeSet(final PreparedStatement st, final Object value, final int index, final SharedSessionContractImplementor session) throws HibernateException, SQLException {
+		if (value == null) {
+			st.setNull(index, Types.ARRAY);
+		} else {
+			bind(st, index, (A)value);
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void appendText(final Object value, final StringBuilder out) {
+		final A array = (A)value;
+		final int length = Array.getLength(array);
+
+		out.append('{');
+		for (int i = 0; i < length; i++) {
+			if (i > 0)
+				out.append(',');
+			appendText(array, i, out);
+		}
+		out.append('}');
+	}
+
+	/** Append a string element, or NULL, quoted and escaped for an array literal */
+	protected static void appendQuoted(final String value, final StringBuilder out) {
+		if (value == null) {
+			out.append("NULL");
+			return;
+		}
+
+		out.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '"' || c == '\\')
+				out.append('\\');
+			out.append(c);
+		}
+		out.append('"');
+	}
+
+	/** ndim, has-null flag, element oid, then (length, lower bound) per dimension, then (length, bytes) per element */
+	private A decodeBinary(final byte[] value) {
+		final ByteBuffer data = ByteBuffer.wrap(value);
+
+		final int dimensions = data.getInt();
+		if (dimensions == 0)
+			return newArray(0);
+		if (dimensions != 1)
+			throw new HibernateException("Only one-dimensional arrays are supported, not " + dimensions);
+
+		data.getInt();	// has nulls
+		data.getInt();	// element oid
+		final int length = data.getInt();
+		data.getInt();	// lower bound
+
+		final A array = newArray(length);
+		for (int i = 0; i < length; i++) {
+			final int elementLength = data.getInt();
+			if (elementLength < 0) {
+				readNull(array, i);
+			} else {
+				final int start = data.position();
+				readBinary(array, i, data, elementLength);
+				data.position(start + elementLength);
+			}
+		}
+
+		return array;
+	}
+
+	/** Postgres array literal syntax, eg {@code {1,2,NULL}} or {@code [0:1]={"a b","c\"d"}} */
+	private A decodeText(final byte[] value) {
+		int start = 0;
+		if (value[0] == '[') {
+			// Explicit bounds; we don't preserve them
+			while (start < value.length && value[start] != '=')
+				start++;
+			start++;
+		}
+
+		if (start >= value.length || value[start] != '{' || value[value.length - 1] != '}')
+			throw new HibernateException("Not an array literal: " + new String(value, StandardCharsets.UTF_8));
+
+		final int end = value.length - 1;
+		final A array = newArray(countElements(value, start + 1, end));
+
+		byte[] unescaped = null;
+		int index = 0;
+		int pos = start + 1;
+		while (pos < end) {
+			if (value[pos] == '"') {
+				if (unescaped == null)
+					unescaped = new byte[end - pos];
+
+				int length = 0;
+				pos++;
+				while (value[pos] != '"') {
+					if (value[pos] == '\\')
+						pos++;
+
+					unescaped[length++] = value[pos++];
+				}
+				pos++;	// closing quote
+
+				readText(array, index++, new String(unescaped, 0, length, StandardCharsets.UTF_8));
+			} else {
+				final int tokenStart = pos;
+				while (pos < end && value[pos] != ',')
+					pos++;
+
+				final int length = pos - tokenStart;
+				if (length == 4 && value[tokenStart] == 'N' && value[tokenStart + 1] == 'U' && value[tokenStart + 2] == 'L' && value[tokenStart + 3] == 'L')
+					readNull(array, index++);
+				else
+					readText(array, index++, value, tokenStart, length);
+			}
+
+			pos++;	// the comma
+		}
+
+		return array;
+	}
+
+	/** Count top-level commas, ignoring any inside quotes */
+	private static int countElements(final byte[] value, final int start, final int end) {
+		if (start == end)
+			return 0;
+
+		int count = 1;
+		boolean quoted = false;
+		for (int i = start; i < end; i++) {
+			final byte b = value[i];
+			if (b == '\\' && quoted)
+				i++;
+			else if (b == '"')
+				quoted = !quoted;
+			else if (b == '{' && !quoted)
+				throw new HibernateException("Only one-dimensional arrays are supported");
+			else if (b == ',' && !quoted)
+				count++;
+		}
+
+		return count;
+	}
+
+	/** Parse a decimal integer without creating a String */
+	protected static long parseLong(final byte[] data, final int offset, final int length) {
+		if (length == 0)
+			throw new NumberFormatException("Empty array element");
+
+		final boolean negative = data[offset] == '-';
+		long result = 0;
+		for (int i = negative ? offset + 1 : offset; i < offset + length; i++) {
+			final int digit = data[i] - '0';
+			if (digit < 0 || digit > 9)
+				throw new NumberFormatException("Not an integer: " + new String(data, offset, length, StandardCharsets.US_ASCII));
+
+			result = result * 10 - digit;	// accumulate negatively so Long.MIN_VALUE fits
+		}
+
+		return negative ? result : -result;
+	}
+
+	@Override
+	public Object replace(Object original, Object target, Object owner) throws HibernateException {
+		return this.deepCopy(original);
+	}
+
+	@Override
+	public Class<?> returnedClass() {
+		return this.arrayClass;
+	}
+
+	@Override
+	public int[] sqlTypes() {
+		return SQL_TYPES;
+	}
+}
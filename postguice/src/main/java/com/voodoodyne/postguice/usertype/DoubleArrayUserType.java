@@ -0,0 +1,36 @@
+package com.voodoodyne.postguice.usertype;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Maps {@code double[]} to a {@code float8[]} column (or {@code float4[]}, which widens). See {@link ArrayUserType}.
+ */
+public class DoubleArrayUserType extends ArrayUserType<double[]> {
+
+	private static final long serialVersionUID = 2275933408131606129L;
+
+	public DoubleArrayUserType() {
+		super(double[].class);
+	}
+
+	@Override
+	protected double[] newArray(final int length) {
+		return new double[length];
+	}
+
+	@Override
+	protected void readBinary(final double[] array, final int index, final ByteBuffer data, final int length) {
+		array[index] = length == 4 ? data.getFloat() : data.getDouble();
+	}
+
+	/** Also understands Infinity, -Infinity, and NaN as Postgres prints them */
+	@Override
+	protected void readText(final double[] array, final int index, final String text) {
+		array[index] = Double.parseDouble(text);
+	}
+
+	@Override
+	protected void appendText(final double[] array, final int index, final StringBuilder out) {
+		out.append(array[index]);
+	}
+}
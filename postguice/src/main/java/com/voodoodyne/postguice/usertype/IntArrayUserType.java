@@ -0,0 +1,40 @@
+package com.voodoodyne.postguice.usertype;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Maps {@code int[]} to an {@code int4[]} column (or {@code int2[]}, which widens). See {@link ArrayUserType}.
+ */
+public class IntArrayUserType extends ArrayUserType<int[]> {
+
+	private static final long serialVersionUID = 6417502834611924471L;
+
+	public IntArrayUserType() {
+		super(int[].class);
+	}
+
+	@Override
+	protected int[] newArray(final int length) {
+		return new int[length];
+	}
+
+	@Override
+	protected void readBinary(final int[] array, final int index, final ByteBuffer data, final int length) {
+		array[index] = length == 2 ? data.getShort() : data.getInt();
+	}
+
+	@Override
+	protected void readText(final int[] array, final int index, final String text) {
+		array[index] = Integer.parseInt(text);
+	}
+
+	@Override
+	protected void readText(final int[] array, final int index, final byte[] data, final int offset, final int length) {
+		array[index] = Math.toIntExact(parseLong(data, offset, length));
+	}
+
+	@Override
+	protected void appendText(final int[] array, final int index, final StringBuilder out) {
+		out.append(array[index]);
+	}
+}
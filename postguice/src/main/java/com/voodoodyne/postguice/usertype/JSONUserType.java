@@ -1,22 +1,27 @@
 package com.voodoodyne.postguice.usertype;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.DeserializationFeature;
-import com.fasterxml.jackson.databind.JavaType;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.base.Objects;
+import com.google.common.io.CharStreams;
 import com.googlecode.gentyref.GenericTypeReflector;
 import org.hibernate.HibernateException;
 import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.usertype.ParameterizedType;
 import org.hibernate.usertype.UserType;
 
+import javax.inject.Inject;
 import java.io.IOException;
 import java.io.Serializable;
+import java.lang.reflect.Type;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 
 /**
  * Hibernate {@link UserType} implementation to handle JSON objects. Create a subclass
@@ -27,52 +32,176 @@ import java.sql.Types;
  * http://blog.janjonas.net/2010-04-27/hibernate-json-usertype-persist-json-objects
  * http://java.dzone.com/articles/annotating-custom-types
  *
+ * Conversion goes through a {@link JsonCodec}, injected by PostguiceModule (Jackson unless you bind another)
+ * or passed to the constructor by a subclass. The codec resolves everything it needs for the type once, at
+ * construction. Values are parsed straight from the column bytes; pgjdbc has no way to bind jsonb except as
+ * text, so writes still go through a String.
+ *
+ * Hibernate deep copies values on load, merge, and cache assembly. By default that copy goes through a
+ * codec (for Jackson, a TokenBuffer, so no text); subclasses override {@link #copy(Object)} with a structural copy where they
+ * can. If your code never mutates values in place, declare the type immutable and copying disappears entirely,
+ * which also makes dirty checking an identity comparison for untouched values:
+ *
+ * {@code @Type(type = "...", parameters = @Parameter(name = "immutable", value = "true"))}
+ *
  * @param <T> is the type of the class you want to convert to json with this
  */
-public class JSONUserType<T> implements UserType, Serializable {
+public class JSONUserType<T> implements UserType, ParameterizedType, PostgresTextType, Serializable {
 
 	private static final long serialVersionUID = 949847068189119668L;
 
-	private static final ObjectMapper MAPPER = new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+	/** Statically injected; usertypes created before injection (or without guice) use the default */
+	@Inject
+	private static JsonCodec injectedCodec;
 
 	private static final int[] SQL_TYPES = new int[]{Types.JAVA_OBJECT};
 
+	/** The first byte of jsonb in binary transfer format */
+	private static final byte JSONB_VERSION = 1;
+
+	/** Type parameter which, set to "true", declares that values are never modified in place */
+	public static final String IMMUTABLE = "immutable";
+
+	/** Returned by copyTree() when it finds something that isn't plain JSON data */
+	private static final Object NOT_A_TREE = new Object();
+
 	private final Class<T> classType;
-	private final JavaType javaType;
+	private final JsonCodec.TypeCodec<T> codec;
+
+	private boolean immutable;
 
 	public JSONUserType(final Class<T> classType) {
-		this.classType = classType;
-		this.javaType = MAPPER.getTypeFactory().constructType(classType);
+		this(classType, (JsonCodec)null);
 	}
 
 	public JSONUserType(final TypeReference<?> typeReference) {
+		this(typeReference, null);
+	}
+
+	/** Use a specific codec for this type rather than the injected one */
+	public JSONUserType(final Class<T> classType, final JsonCodec codec) {
+		this(classType, classType, codec);
+	}
+
+	/** Use a specific codec for this type rather than the injected one */
+	public JSONUserType(final TypeReference<?> typeReference, final JsonCodec codec) {
 		//noinspection unchecked
-		this.classType = (Class<T>)GenericTypeReflector.erase(typeReference.getType());
-		this.javaType = MAPPER.getTypeFactory().constructType(typeReference);
+		this((Class<T>)GenericTypeReflector.erase(typeReference.getType()), typeReference.getType(), codec);
+	}
+
+	private JSONUserType(final Class<T> classType, final Type type, final JsonCodec codec) {
+		this.classType = classType;
+		this.codec = (codec != null ? codec : defaultCodec()).forType(type);
+	}
+
+	private static JsonCodec defaultCodec() {
+		return injectedCodec != null ? injectedCodec : JacksonJsonCodec.DEFAULT;
+	}
+
+	/** For {@link LazyJSONUserType}, which parses on demand */
+	JsonCodec.TypeCodec<T> codec() {
+		return codec;
 	}
 
+	@Override
+	public void setParameterValues(final Properties parameters) {
+		if (parameters != null)
+			this.immutable = Boolean.parseBoolean(parameters.getProperty(IMMUTABLE));
+	}
+
+	/** The cached form is the JSON text produced by disassemble() */
 	@Override
 	public Object assemble(Serializable cached, Object owner) throws HibernateException {
-		return this.deepCopy(cached);
+		if (cached == null)
+			return null;
+
+		try {
+			return codec.read((String)cached);
+		} catch (IOException e) {
+			throw new HibernateException("Unable to assemble object", e);
+		}
 	}
 
 	@Override
 	public Object deepCopy(Object value) throws HibernateException {
-		if (value == null)
-			return null;
+		if (value == null || !isMutable())
+			return value;
 
 		try {
-			return MAPPER.readValue(MAPPER.writeValueAsString(value), this.javaType);
+			//noinspection unchecked
+			return copy((T)value);
 		} catch (IOException e) {
 			throw new HibernateException("Unable to deep copy object", e);
 		}
 	}
 
+	/**
+	 * Make an independent copy of a (non-null) value. The default asks the codec, which for Jackson replays
+	 * the token stream without producing any text; override if your type knows a cheaper way.
+	 */
+	protected T copy(final T value) throws IOException {
+		return codec.copy(value);
+	}
+
+	/**
+	 * Structural copy of plain JSON data: maps and lists are copied, strings, numbers, and booleans are shared.
+	 * Falls back to a token copy if anything else turns up.
+	 */
+	protected T copyJsonData(final T value) throws IOException {
+		final Object copied = copyTree(value);
+		if (copied == NOT_A_TREE)
+			return codec.copy(value);
+
+		//noinspection unchecked
+		return (T)copied;
+	}
+
+	private static Object copyTree(final Object value) {
+		if (value == null || value instanceof String || value instanceof Number || value instanceof Boolean) {
+			return value;
+		} else if (value instanceof Map) {
+			final Map<?, ?> map = (Map<?, ?>)value;
+			final Map<Object, Object> copy = new LinkedHashMap<>(Math.max(16, map.size() * 4 / 3 + 1));
+			for (final Map.Entry<?, ?> entry : map.entrySet()) {
+				final Object copiedValue = copyTree(entry.getValue());
+				if (copiedValue == NOT_A_TREE)
+					return NOT_A_TREE;
+
+				copy.put(entry.getKey(), copiedValue);
+			}
+			return copy;
+		} else if (value instanceof List) {
+			final List<?> list = (List<?>)value;
+			final List<Object> copy = new ArrayList<>(list.size());
+			for (final Object element : list) {
+				final Object copiedElement = copyTree(element);
+				if (copiedElement == NOT_A_TREE)
+					return NOT_A_TREE;
+
+				copy.add(copiedElement);
+			}
+			return copy;
+		} else {
+			return NOT_A_TREE;
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void appendText(final Object value, final StringBuilder out) {
+		try {
+			codec.write((T)value, CharStreams.asWriter(out));
+		} catch (IOException e) {
+			throw new HibernateException("Unable to write object as text", e);
+		}
+	}
+
 	@Override
+	@SuppressWarnings("unchecked")
 	public Serializable disassemble(Object value) throws HibernateException {
 		try {
-			return MAPPER.writeValueAsString(value);
-		} catch (JsonProcessingException e) {
+			return codec.write((T)value);
+		} catch (IOException e) {
 			throw new HibernateException("Unable to disassemble object", e);
 		}
 	}
@@ -89,18 +218,22 @@ public class JSONUserType<T> implements UserType, Serializable {
 
 	@Override
 	public boolean isMutable() {
-		return true;
+		return !immutable;
 	}
 
 	@Override
 	public Object nullSafeGet(final ResultSet rs, final String[] names, final SharedSessionContractImplementor session, final Object owner) throws HibernateException, SQLException {
-		String value = rs.getString(names[0]);
+		// For anything but bytea, pgjdbc hands back the raw column bytes without decoding a String
+		final byte[] value = rs.getBytes(names[0]);
 
 		if (value == null) {
 			return null;
 		} else {
 			try {
-				return MAPPER.readValue(value, this.javaType);
+				if (value.length > 0 && value[0] == JSONB_VERSION)
+					return codec.read(value, 1, value.length - 1);
+				else
+					return codec.read(value, 0, value.length);
 			} catch (IOException e) {
 				throw new HibernateException("Unable to read object from result set", e);
 			}
@@ -108,13 +241,14 @@ public class JSONUserType<T> implements UserType, Serializable {
 	}
 
 	@Override
+	@SuppressWarnings("unchecked")
 	public void nullSafeSet(final PreparedStatement st, final Object value, final int index, final SharedSessionContractImplementor session) throws HibernateException, SQLException {
 		if (value == null) {
 			st.setNull(index, Types.OTHER);
 		} else {
 			try {
-				st.setObject(index, MAPPER.writeValueAsString(value), Types.OTHER);
-			} catch (JsonProcessingException e) {
+				st.setObject(index, codec.write((T)value), Types.OTHER);
+			} catch (IOException e) {
 				throw new HibernateException("Unable to set object to result set", e);
 			}
 		}
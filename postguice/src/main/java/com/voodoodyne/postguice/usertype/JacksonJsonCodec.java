@@ -0,0 +1,101 @@
+package com.voodoodyne.postguice.usertype;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.JavaType;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Type;
+
+/**
+ * {@link JsonCodec} on a Jackson ObjectMapper. Readers and writers are created per type up front, which makes
+ * Jackson build (and with Blackbird or Afterburner, generate) the root serializer and deserializer right away.
+ */
+public class JacksonJsonCodec implements JsonCodec {
+
+	/** Used by usertypes created without injection */
+	public static final JacksonJsonCodec DEFAULT = new JacksonJsonCodec();
+
+	private final ObjectMapper mapper;
+
+	/** Ignores unknown properties, like postguice always has */
+	public JacksonJsonCodec() {
+		this(new ObjectMapper().disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES));
+	}
+
+	public JacksonJsonCodec(final ObjectMapper mapper) {
+		this.mapper = mapper;
+	}
+
+	public ObjectMapper getMapper() {
+		return mapper;
+	}
+
+	@Override
+	public <T> TypeCodec<T> forType(final Type type) {
+		final JavaType javaType = mapper.getTypeFactory().constructType(type);
+		return new Codec<>(mapper, mapper.readerFor(javaType), writerFor(javaType));
+	}
+
+	/**
+	 * Binding the writer to the declared type lets Jackson resolve the serializer up front. That would lose
+	 * subclass properties for an open class hierarchy, so in that case the writer is left to the runtime type;
+	 * we still resolve the declared type's serializer, which is cached in the mapper for values of exactly that type.
+	 */
+	private ObjectWriter writerFor(final JavaType javaType) {
+		if (javaType.isContainerType() || Modifier.isFinal(javaType.getRawClass().getModifiers())) {
+			return mapper.writerFor(javaType);
+		} else {
+			mapper.writerFor(javaType);
+			return mapper.writer();
+		}
+	}
+
+	private static class Codec<T> implements TypeCodec<T> {
+		private static final long serialVersionUID = -3183426270417720125L;
+
+		private final ObjectMapper mapper;
+		private final ObjectReader reader;
+		private final ObjectWriter writer;
+
+		Codec(final ObjectMapper mapper, final ObjectReader reader, final ObjectWriter writer) {
+			this.mapper = mapper;
+			this.reader = reader;
+			this.writer = writer;
+		}
+
+		@Override
+		public T read(final byte[] data, final int offset, final int length) throws IOException {
+			return reader.readValue(data, offset, length);
+		}
+
+		@Override
+		public T read(final String json) throws IOException {
+			return reader.readValue(json);
+		}
+
+		@Override
+		public String write(final T value) throws IOException {
+			return writer.writeValueAsString(value);
+		}
+
+		@Override
+		public void write(final T value, final Writer out) throws IOException {
+			writer.writeValue(out, value);
+		}
+
+		/** Replays Jackson's token stream without producing any text */
+		@Override
+		public T copy(final T value) throws IOException {
+			try (final TokenBuffer buffer = new TokenBuffer(mapper, false)) {
+				writer.writeValue(buffer, value);
+				return reader.readValue(buffer.asParser());
+			}
+		}
+	}
+}
@@ -0,0 +1,47 @@
+package com.voodoodyne.postguice.usertype;
+
+import com.google.inject.ImplementedBy;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.Writer;
+import java.lang.reflect.Type;
+
+/**
+ * <p>Converts values to and from JSON for {@link JSONUserType}. The default is Jackson with an ObjectMapper that
+ * ignores unknown properties; to tune it (Blackbird or Afterburner, JavaTimeModule, etc), bind your own:</p>
+ *
+ * <pre>
+ * {@code
+ *  bind(JsonCodec.class).toInstance(new JacksonJsonCodec(myMapper));
+ * }
+ * </pre>
+ *
+ * <p>PostguiceModule injects it into JSONUserType before hibernate starts. A subclass of JSONUserType can also
+ * pass a codec of its own to the constructor, eg a faster or binary-friendly one for a particular type.</p>
+ */
+@ImplementedBy(JacksonJsonCodec.class)
+public interface JsonCodec {
+
+	/**
+	 * Resolve everything needed to handle one type. This is called once per usertype, when hibernate starts,
+	 * so it should do any expensive lookup or code generation now rather than on first use.
+	 */
+	<T> TypeCodec<T> forType(Type type);
+
+	/**
+	 * Handles one type. Must be thread-safe, and serializable because usertypes are.
+	 */
+	interface TypeCodec<T> extends Serializable {
+		T read(byte[] data, int offset, int length) throws IOException;
+
+		T read(String json) throws IOException;
+
+		String write(T value) throws IOException;
+
+		void write(T value, Writer out) throws IOException;
+
+		/** An independent copy of a non-null value, ideally without producing text */
+		T copy(T value) throws IOException;
+	}
+}
@@ -9,4 +9,9 @@ public class JsonNodeUserType extends JSONUserType<JsonNode> {
 	public JsonNodeUserType() {
 		super(JsonNode.class);
 	}
+
+	@Override
+	protected JsonNode copy(final JsonNode value) {
+		return value.deepCopy();
+	}
 }
\ No newline at end of file
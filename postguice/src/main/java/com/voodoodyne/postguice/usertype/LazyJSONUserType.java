@@ -0,0 +1,168 @@
+package com.voodoodyne.postguice.usertype;
+
+import org.hibernate.HibernateException;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.usertype.ParameterizedType;
+import org.hibernate.usertype.UserType;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.Properties;
+
+/**
+ * <p>Maps a jsonb column to a {@link LazyJson} holder, which parses the JSON only when the value is asked for.
+ * Use this for large JSON columns that most reads never look at, such as list pages. Create a subclass
+ * around the JSONUserType you would otherwise use:</p>
+ *
+ * <pre>
+ * {@code
+ *  public class LazyThingUserType extends LazyJSONUserType<Thing> {
+ *      public LazyThingUserType() {
+ *          super(new ThingUserType());
+ *      }
+ *  }
+ * }
+ * </pre>
+ *
+ * <p>While a value is unparsed, dirty checking compares the raw bytes (which for an untouched value are the
+ * same array, so it costs nothing), and writing it sends the original text back without serializing. Once
+ * parsed, copying, comparing, and writing are delegated to the wrapped type, including its copy
+ * optimizations and its {@value JSONUserType#IMMUTABLE} parameter.</p>
+ *
+ * @param <T> is the type of the parsed value
+ */
+public class LazyJSONUserType<T> implements UserType, ParameterizedType, PostgresTextType, Serializable {
+
+	private static final long serialVersionUID = 5147212003874630553L;
+
+	private static final int[] SQL_TYPES = new int[]{Types.JAVA_OBJECT};
+
+	/** The first byte of jsonb in binary transfer format */
+	private static final byte JSONB_VERSION = 1;
+
+	private final JSONUserType<T> delegate;
+
+	public LazyJSONUserType(final JSONUserType<T> delegate) {
+		this.delegate = delegate;
+	}
+
+	@Override
+	public void setParameterValues(final Properties parameters) {
+		delegate.setParameterValues(parameters);
+	}
+
+	@Override
+	public Object nullSafeGet(final ResultSet rs, final String[] names, final SharedSessionContractImplementor session, final Object owner) throws HibernateException, SQLException {
+		final byte[] value = rs.getBytes(names[0]);
+
+		if (value == null)
+			return null;
+		else if (value.length > 0 && value[0] == JSONB_VERSION)
+			return LazyJson.unparsed(Arrays.copyOfRange(value, 1, value.length), delegate.codec());
+		else
+			return LazyJson.unparsed(value, delegate.codec());
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void nullSafeSet(final PreparedStatement st, final Object value, final int index, final SharedSessionContractImplementor session) throws HibernateException, SQLException {
+		final LazyJson<T> lazy = (LazyJson<T>)value;
+
+		if (lazy == null || lazy.isMaterialized())
+			delegate.nullSafeSet(st, lazy == null ? null : lazy.get(), index, session);
+		else
+			st.setObject(index, new String(lazy.raw(), StandardCharsets.UTF_8), Types.OTHER);
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void appendText(final Object value, final StringBuilder out) {
+		final LazyJson<T> lazy = (LazyJson<T>)value;
+
+		if (lazy.isMaterialized())
+			delegate.appendText(lazy.get(), out);
+		else
+			out.append(new String(lazy.raw(), StandardCharsets.UTF_8));
+	}
+
+	/** An unparsed value shares its bytes; a parsed one is copied by the wrapped type */
+	@Override
+	@SuppressWarnings("unchecked")
+	public Object deepCopy(final Object value) throws HibernateException {
+		final LazyJson<T> lazy = (LazyJson<T>)value;
+
+		if (lazy == null)
+			return null;
+		else if (!lazy.isMaterialized())
+			return lazy.share();
+		else
+			return LazyJson.of((T)delegate.deepCopy(lazy.get()));
+	}
+
+	/** Raw bytes while both sides are unparsed; otherwise the parsed values */
+	@Override
+	public boolean equals(final Object x, final Object y) throws HibernateException {
+		if (x == y)
+			return true;
+		if (x == null || y == null)
+			return false;
+
+		final LazyJson<?> left = (LazyJson<?>)x;
+		final LazyJson<?> right = (LazyJson<?>)y;
+
+		if (!left.isMaterialized() && !right.isMaterialized())
+			return left.raw() == right.raw() || Arrays.equals(left.raw(), right.raw());
+		else
+			return delegate.equals(left.get(), right.get());
+	}
+
+	/** Parses the value, to be consistent with equals() */
+	@Override
+	public int hashCode(final Object x) throws HibernateException {
+		return x == null ? 0 : delegate.hashCode(((LazyJson<?>)x).get());
+	}
+
+	@Override
+	public boolean isMutable() {
+		return true;
+	}
+
+	/** The cached form is the JSON text, which stays unparsed when assembled */
+	@Override
+	@SuppressWarnings("unchecked")
+	public Serializable disassemble(final Object value) throws HibernateException {
+		final LazyJson<T> lazy = (LazyJson<T>)value;
+
+		if (lazy == null)
+			return null;
+		else if (!lazy.isMaterialized())
+			return new String(lazy.raw(), StandardCharsets.UTF_8);
+		else
+			return delegate.disassemble(lazy.get());
+	}
+
+	@Override
+	public Object assemble(final Serializable cached, final Object owner) throws HibernateException {
+		return cached == null ? null : LazyJson.unparsed(((String)cached).getBytes(StandardCharsets.UTF_8), delegate.codec());
+	}
+
+	@Override
+	public Object replace(final Object original, final Object target, final Object owner) throws HibernateException {
+		return deepCopy(original);
+	}
+
+	@Override
+	public Class<?> returnedClass() {
+		return LazyJson.class;
+	}
+
+	@Override
+	public int[] sqlTypes() {
+		return SQL_TYPES;
+	}
+}
@@ -0,0 +1,100 @@
+package com.voodoodyne.postguice.usertype;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * <p>A JSON value that is parsed only when something asks for it. Map a property of this type with a
+ * {@link LazyJSONUserType} and loading the entity just keeps the column's bytes; {@link #get()} parses them
+ * the first time it is called. If the value is never touched, it is never parsed, never copied for dirty
+ * checking, and never serialized again.</p>
+ *
+ * <p>Once the value has been parsed it behaves like a normal JSON property: you can modify it in place and
+ * the change is detected at flush. Not thread-safe, like the entity it belongs to.</p>
+ *
+ * @param <T> is the type of the parsed value
+ */
+public final class LazyJson<T> implements Serializable {
+
+	private static final long serialVersionUID = -2687325051587785312L;
+
+	/** The JSON text as UTF-8; null once we've been given or parsed a value */
+	private byte[] raw;
+	private JsonCodec.TypeCodec<T> codec;
+
+	private T value;
+
+	private LazyJson(final byte[] raw, final JsonCodec.TypeCodec<T> codec, final T value) {
+		this.raw = raw;
+		this.codec = codec;
+		this.value = value;
+	}
+
+	/** A holder for a value you already have */
+	public static <T> LazyJson<T> of(final T value) {
+		return new LazyJson<>(null, null, value);
+	}
+
+	/** Unparsed JSON text, which must not be modified afterwards */
+	static <T> LazyJson<T> unparsed(final byte[] raw, final JsonCodec.TypeCodec<T> codec) {
+		return new LazyJson<>(raw, codec, null);
+	}
+
+	/** @return the value, parsing it if this is the first access */
+	public T get() {
+		if (raw != null) {
+			try {
+				value = codec.read(raw, 0, raw.length);
+			} catch (IOException e) {
+				throw new UncheckedIOException("Unable to parse JSON", e);
+			}
+			raw = null;
+			codec = null;
+		}
+
+		return value;
+	}
+
+	/** Replace the value */
+	public void set(final T value) {
+		this.raw = null;
+		this.codec = null;
+		this.value = value;
+	}
+
+	/** @return true if the value has been parsed or set */
+	public boolean isMaterialized() {
+		return raw == null;
+	}
+
+	/** The unparsed JSON text; only valid if not materialized */
+	byte[] raw() {
+		return raw;
+	}
+
+	/** Another holder for the same unparsed text, which is never modified so it can be shared */
+	LazyJson<T> share() {
+		return new LazyJson<>(raw, codec, null);
+	}
+
+	/** Compares values, so parses both */
+	@Override
+	public boolean equals(final Object o) {
+		return this == o || (o instanceof LazyJson && Objects.equals(get(), ((LazyJson<?>)o).get()));
+	}
+
+	/** Parses the value */
+	@Override
+	public int hashCode() {
+		return Objects.hashCode(get());
+	}
+
+	/** Doesn't parse the value */
+	@Override
+	public String toString() {
+		return raw != null ? new String(raw, StandardCharsets.UTF_8) : String.valueOf(value);
+	}
+}
@@ -0,0 +1,12 @@
+package com.voodoodyne.postguice.usertype;
+
+import java.util.Map;
+
+/**
+ * UserType which lets us store a lazily parsed Map in hibernate, as {@code LazyJson<Map<String, Object>>}.
+ */
+public class LazyMapUserType extends LazyJSONUserType<Map<String, Object>> {
+	public LazyMapUserType() {
+		super(new MapUserType());
+	}
+}
@@ -2,6 +2,7 @@ package com.voodoodyne.postguice.usertype;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -11,4 +12,10 @@ public class ListStringJSONUserType extends JSONUserType<List<String>> {
 	public ListStringJSONUserType() {
 		super(new TypeReference<List<String>>(){});
 	}
+
+	/** Strings are immutable, so a shallow copy is a deep copy */
+	@Override
+	protected List<String> copy(final List<String> value) {
+		return new ArrayList<>(value);
+	}
 }
\ No newline at end of file
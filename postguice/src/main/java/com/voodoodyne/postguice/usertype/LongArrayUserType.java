@@ -0,0 +1,40 @@
+package com.voodoodyne.postguice.usertype;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Maps {@code long[]} to an {@code int8[]} column (or {@code int4[]}, which widens). See {@link ArrayUserType}.
+ */
+public class LongArrayUserType extends ArrayUserType<long[]> {
+
+	private static final long serialVersionUID = -3029476236400457291L;
+
+	public LongArrayUserType() {
+		super(long[].class);
+	}
+
+	@Override
+	protected long[] newArray(final int length) {
+		return new long[length];
+	}
+
+	@Override
+	protected void readBinary(final long[] array, final int index, final ByteBuffer data, final int length) {
+		array[index] = length == 4 ? data.getInt() : data.getLong();
+	}
+
+	@Override
+	protected void readText(final long[] array, final int index, final String text) {
+		array[index] = Long.parseLong(text);
+	}
+
+	@Override
+	protected void readText(final long[] array, final int index, final byte[] data, final int offset, final int length) {
+		array[index] = parseLong(data, offset, length);
+	}
+
+	@Override
+	protected void appendText(final long[] array, final int index, final StringBuilder out) {
+		out.append(array[index]);
+	}
+}
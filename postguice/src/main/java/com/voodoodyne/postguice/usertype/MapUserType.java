@@ -2,6 +2,7 @@ package com.voodoodyne.postguice.usertype;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 
+import java.io.IOException;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -12,4 +13,9 @@ public class MapUserType extends JSONUserType<Map<String, Object>> {
 	public MapUserType() {
 		super(new TypeReference<LinkedHashMap<String, Object>>(){});
 	}
+
+	@Override
+	protected Map<String, Object> copy(final Map<String, Object> value) throws IOException {
+		return copyJsonData(value);
+	}
 }
\ No newline at end of file
@@ -0,0 +1,10 @@
+package com.voodoodyne.postguice.usertype;
+
+/**
+ * A usertype which can render its values in Postgres text format, the same way they would be written
+ * as a literal or in {@code COPY ... FROM STDIN}. Used by {@link com.voodoodyne.postguice.BulkCopy}.
+ */
+public interface PostgresTextType {
+	/** Append the text form of a non-null value; COPY escaping is the caller's problem */
+	void appendText(Object value, StringBuilder out);
+}
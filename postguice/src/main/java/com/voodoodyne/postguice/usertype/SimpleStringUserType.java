@@ -18,7 +18,7 @@ import java.sql.Types;
  *
  * @param <T> is the type of the class you want to convert to string with this
  */
-abstract public class SimpleStringUserType<T extends Serializable> implements UserType, Serializable {
+abstract public class SimpleStringUserType<T extends Serializable> implements UserType, PostgresTextType, Serializable {
 
 	private static final long serialVersionUID = 2020526952561198860L;
 
@@ -83,6 +83,11 @@ abstract public class SimpleStringUserType<T extends Serializable> implements Us
 		}
 	}
 
+	@Override
+	public void appendText(final Object value, final StringBuilder out) {
+		out.append(value);
+	}
+
 	@Override
 	public Object replace(Object original, Object target, Object owner) throws HibernateException {
 		return original;
@@ -0,0 +1,42 @@
+package com.voodoodyne.postguice.usertype;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Maps {@code String[]} to a {@code text[]} or {@code varchar[]} column. NULL elements are allowed.
+ * See {@link ArrayUserType}.
+ */
+public class StringArrayUserType extends ArrayUserType<String[]> {
+
+	private static final long serialVersionUID = -1470394852290875412L;
+
+	public StringArrayUserType() {
+		super(String[].class);
+	}
+
+	@Override
+	protected String[] newArray(final int length) {
+		return new String[length];
+	}
+
+	@Override
+	protected void readBinary(final String[] array, final int index, final ByteBuffer data, final int length) {
+		array[index] = new String(data.array(), data.arrayOffset() + data.position(), length, StandardCharsets.UTF_8);
+	}
+
+	@Override
+	protected void readText(final String[] array, final int index, final String text) {
+		array[index] = text;
+	}
+
+	@Override
+	protected void readNull(final String[] array, final int index) {
+		array[index] = null;
+	}
+
+	@Override
+	protected void appendText(final String[] array, final int index, final StringBuilder out) {
+		appendQuoted(array[index], out);
+	}
+}
@@ -1,87 +1,16 @@
 package com.voodoodyne.postguice.usertype;
 
-import com.google.common.base.Objects;
-import org.hibernate.HibernateException;
-import org.hibernate.engine.spi.SharedSessionContractImplementor;
-import org.hibernate.usertype.UserType;
-
-import java.io.Serializable;
-import java.sql.Array;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
-import java.sql.SQLException;
-import java.sql.Types;
-
 /**
+ * <p>Maps {@code String[]} to a {@code text[]} column. Kept for existing mappings; this is now just a
+ * {@link StringArrayUserType}.</p>
+ *
+ * <p>That changes dirty checking. This type used to be immutable and compare arrays by reference, so modifying an
+ * array in place was never saved, and assigning a new array with the same contents always caused an update. Now
+ * arrays are copied on load and compared by content: in-place changes are saved, equal replacements are not, and
+ * each load pays for a copy. Set the {@value ArrayUserType#IMMUTABLE} type parameter to "true" to skip the copy
+ * if you only ever assign new arrays.</p>
  */
-public class TextArrayUserType implements UserType, Serializable {
+public class TextArrayUserType extends StringArrayUserType {
 
 	private static final long serialVersionUID = -533369389285169774L;
-
-	private static final int[] SQL_TYPES = new int[]{Types.ARRAY};
-
-	@Override
-	public Object assemble(Serializable cached, Object owner) throws HibernateException {
-		return this.deepCopy(cached);
-	}
-
-	@Override
-	public Object deepCopy(Object value) throws HibernateException {
-		return value;
-	}
-
-	@Override
-	public Serializable disassemble(Object value) throws HibernateException {
-		return (Serializable)value;
-	}
-
-	@Override
-	public boolean equals(Object x, Object y) throws HibernateException {
-		return Objects.equal(x, y);
-	}
-
-	@Override
-	public int hashCode(Object x) throws HibernateException {
-		return Objects.hashCode(x);
-	}
-
-	@Override
-	public boolean isMutable() {
-		return false;
-	}
-
-	@Override
-	public Object nullSafeGet(final ResultSet rs, final String[] names, final SharedSessionContractImplementor session, final Object owner) throws HibernateException, SQLException {
-		if (rs.wasNull()) {
-			return null;
-		}
-
-		final String[] array = (String[])rs.getArray(names[0]).getArray();
-		return array;
-	}
-
-	@Override
-	public void nullSafeSet(final PreparedStatement st, final Object value, final int index, final SharedSessionContractImplementor session) throws HibernateException, SQLException {
-		if (value == null) {
-			st.setNull(index, SQL_TYPES[0]);
-		} else {
-			final Array array = session.connection().createArrayOf("text", (String[])value);
-			st.setArray(index, array);
-		}
-	}
-
-	@Override
-	public Object replace(Object original, Object target, Object owner) throws HibernateException {
-		return this.deepCopy(original);
-	}
-
-	@Override
-	public Class<?> returnedClass() {
-		return String[].class;
-	}
-
-	@Override
-	public int[] sqlTypes() {
-		return SQL_TYPES;
-	}
-}
\ No newline at end of file
+}
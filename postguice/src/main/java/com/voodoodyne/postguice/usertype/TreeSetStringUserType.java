@@ -11,4 +11,10 @@ public class TreeSetStringUserType extends JSONUserType<TreeSet<String>> {
 	public TreeSetStringUserType() {
 		super(new TypeReference<TreeSet<String>>(){});
 	}
+
+	/** Strings are immutable, so a shallow copy is a deep copy */
+	@Override
+	protected TreeSet<String> copy(final TreeSet<String> value) {
+		return new TreeSet<>(value);
+	}
 }
\ No newline at end of file
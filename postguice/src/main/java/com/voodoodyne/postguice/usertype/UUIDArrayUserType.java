@@ -0,0 +1,49 @@
+package com.voodoodyne.postguice.usertype;
+
+import java.nio.ByteBuffer;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.UUID;
+
+/**
+ * Maps {@code UUID[]} to a {@code uuid[]} column. NULL elements are allowed. See {@link ArrayUserType}.
+ */
+public class UUIDArrayUserType extends ArrayUserType<UUID[]> {
+
+	private static final long serialVersionUID = -8817201694536021856L;
+
+	public UUIDArrayUserType() {
+		super(UUID[].class);
+	}
+
+	@Override
+	protected UUID[] newArray(final int length) {
+		return new UUID[length];
+	}
+
+	@Override
+	protected void readBinary(final UUID[] array, final int index, final ByteBuffer data, final int length) {
+		array[index] = new UUID(data.getLong(), data.getLong());
+	}
+
+	@Override
+	protected void readText(final UUID[] array, final int index, final String text) {
+		array[index] = UUID.fromString(text);
+	}
+
+	@Override
+	protected void readNull(final UUID[] array, final int index) {
+		array[index] = null;
+	}
+
+	/** pgjdbc has no direct binding for UUID[], so this goes through java.sql.Array */
+	@Override
+	protected void bind(final PreparedStatement st, final int index, final UUID[] value) throws SQLException {
+		st.setArray(index, st.getConnection().createArrayOf("uuid", value));
+	}
+
+	@Override
+	protected void appendText(final UUID[] array, final int index, final StringBuilder out) {
+		out.append(array[index] == null ? "NULL" : array[index].toString());
+	}
+}
@@ -0,0 +1,72 @@
+package com.voodoodyne.postguice;
+
+import org.junit.jupiter.api.Test;
+
+import javax.persistence.PersistenceException;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * The retry loop behind transactRetrying(), without a database
+ */
+class TransactionsRetryTest {
+	private static final RetryPolicy NO_BACKOFF = new RetryPolicy(3, 0, 0);
+
+	private final AtomicInteger attempts = new AtomicInteger();
+	private final AtomicInteger resets = new AtomicInteger();
+
+	/** Throws the exception on each of the first n attempts, then succeeds */
+	private String failing(final int n, final Exception e) throws Exception {
+		if (attempts.incrementAndGet() <= n)
+			throw e;
+
+		return "done";
+	}
+
+	@Test
+	void retriesCheckedSerializationFailure() {
+		final String result = Transactions.retrying(NO_BACKOFF, () -> failing(1, new SQLException("conflict", "40001")), resets::incrementAndGet);
+
+		assertEquals("done", result);
+		assertEquals(2, attempts.get());
+		assertEquals(1, resets.get());
+	}
+
+	@Test
+	void retriesWrappedDeadlock() {
+		final PersistenceException deadlock = new PersistenceException(new SQLException("deadlock", "40P01"));
+
+		assertEquals("done", Transactions.retrying(NO_BACKOFF, () -> failing(2, deadlock), resets::incrementAndGet));
+		assertEquals(3, attempts.get());
+	}
+
+	@Test
+	void rethrowsCheckedFailureWhenAttemptsRunOut() {
+		final SQLException conflict = new SQLException("conflict", "40001");
+
+		final SQLException thrown = assertThrows(SQLException.class,
+				() -> Transactions.retrying(NO_BACKOFF, () -> failing(Integer.MAX_VALUE, conflict), resets::incrementAndGet));
+
+		assertSame(conflict, thrown);
+		assertEquals(3, attempts.get());
+		assertEquals(2, resets.get());
+	}
+
+	@Test
+	void doesNotRetryOtherFailures() {
+		final SQLException unique = new SQLException("duplicate key", "23505");
+
+		assertSame(unique, assertThrows(SQLException.class,
+				() -> Transactions.retrying(NO_BACKOFF, () -> failing(1, unique), resets::incrementAndGet)));
+		assertThrows(IOException.class,
+				() -> Transactions.retrying(NO_BACKOFF, () -> failing(Integer.MAX_VALUE, new IOException()), resets::incrementAndGet));
+
+		assertEquals(2, attempts.get());
+		assertEquals(0, resets.get());
+	}
+}
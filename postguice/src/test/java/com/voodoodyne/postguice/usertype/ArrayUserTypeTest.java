@@ -0,0 +1,150 @@
+package com.voodoodyne.postguice.usertype;
+
+import org.hibernate.HibernateException;
+import org.junit.jupiter.api.DynamicTest;
+import org.junit.jupiter.api.TestFactory;
+
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.UUID;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.DynamicTest.dynamicTest;
+
+/**
+ * Decoding column bytes in both formats pgjdbc can hand back, without a database
+ */
+class ArrayUserTypeTest {
+	private static final int INT4_OID = 23;
+	private static final int INT8_OID = 20;
+	private static final int TEXT_OID = 25;
+	private static final int UUID_OID = 2950;
+
+	private static final UUID FIRST = UUID.fromString("a0eebc99-9c0b-4ef8-bb6d-6bb9bd380a11");
+	private static final UUID SECOND = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+	@TestFactory
+	Stream<DynamicTest> decodesText() {
+		return Stream.of(
+				decodes("empty", new LongArrayUserType(), text("{}"), new long[0]),
+				decodes("longs", new LongArrayUserType(), text("{1,-2,3}"), new long[] { 1, -2, 3 }),
+				decodes("long extremes", new LongArrayUserType(), text("{-9223372036854775808,9223372036854775807}"), new long[] { Long.MIN_VALUE, Long.MAX_VALUE }),
+				decodes("bounds header", new LongArrayUserType(), text("[0:2]={7,8,9}"), new long[] { 7, 8, 9 }),
+				decodes("ints", new IntArrayUserType(), text("{1,2}"), new int[] { 1, 2 }),
+				decodes("doubles", new DoubleArrayUserType(), text("{1.5,-2,NaN}"), new double[] { 1.5, -2, Double.NaN }),
+				decodes("unquoted strings", new StringArrayUserType(), text("{a,bc}"), new String[] { "a", "bc" }),
+				decodes("NULL elements", new StringArrayUserType(), text("{NULL,a,NULL}"), new String[] { null, "a", null }),
+				decodes("quoted NULL is a string", new StringArrayUserType(), text("{\"NULL\",NULLS}"), new String[] { "NULL", "NULLS" }),
+				decodes("quoted with escapes", new StringArrayUserType(), text("{\"a b\",\"c\\\"d\",\"e\\\\f\",\"x,y\",\"{}\"}"), new String[] { "a b", "c\"d", "e\\f", "x,y", "{}" }),
+				decodes("empty string", new StringArrayUserType(), text("{\"\",a}"), new String[] { "", "a" }),
+				decodes("unicode", new StringArrayUserType(), text("{\"héllo wörld\",日本}"), new String[] { "héllo wörld", "日本" }),
+				decodes("bounds header with strings", new StringArrayUserType(), text("[2:3]={\"=\",b}"), new String[] { "=", "b" }),
+				decodes("uuids", new UUIDArrayUserType(), text("{" + FIRST + ",NULL," + SECOND + "}"), new UUID[] { FIRST, null, SECOND }),
+				decodes("text array", new TextArrayUserType(), text("{\"a\\\\\",NULL}"), new String[] { "a\\", null })
+		);
+	}
+
+	@TestFactory
+	Stream<DynamicTest> decodesBinary() {
+		return Stream.of(
+				decodes("empty", new LongArrayUserType(), emptyBinary(INT8_OID), new long[0]),
+				decodes("longs", new LongArrayUserType(), binary(INT8_OID, 1, longs(1, Long.MIN_VALUE, Long.MAX_VALUE)), new long[] { 1, Long.MIN_VALUE, Long.MAX_VALUE }),
+				decodes("int4 widened to long", new LongArrayUserType(), binary(INT4_OID, 1, ints(-1, 2)), new long[] { -1, 2 }),
+				decodes("lower bound ignored", new LongArrayUserType(), binary(INT8_OID, 0, longs(5, 6)), new long[] { 5, 6 }),
+				decodes("ints", new IntArrayUserType(), binary(INT4_OID, 1, ints(3, Integer.MIN_VALUE)), new int[] { 3, Integer.MIN_VALUE }),
+				decodes("doubles", new DoubleArrayUserType(), binary(701, 1, new byte[][] { ByteBuffer.allocate(8).putDouble(2.25).array() }), new double[] { 2.25 }),
+				decodes("strings with NULL", new StringArrayUserType(), binary(TEXT_OID, 1, new byte[][] { utf8("a\"b"), null, utf8(""), utf8("é") }), new String[] { "a\"b", null, "", "é" }),
+				decodes("uuids with NULL", new UUIDArrayUserType(), binary(UUID_OID, 1, new byte[][] { uuid(FIRST), null, uuid(SECOND) }), new UUID[] { FIRST, null, SECOND })
+		);
+	}
+
+	@TestFactory
+	Stream<DynamicTest> rejects() {
+		return Stream.of(
+				rejects("NULL in a primitive array", new LongArrayUserType(), text("{1,NULL}")),
+				rejects("binary NULL in a primitive array", new LongArrayUserType(), binary(INT8_OID, 1, new byte[][] { null })),
+				rejects("two dimensions in text", new LongArrayUserType(), text("{{1,2},{3,4}}")),
+				rejects("two dimensions in binary", new LongArrayUserType(), ByteBuffer.allocate(12).putInt(2).putInt(0).putInt(INT8_OID).array()),
+				rejects("bounds header without an array", new LongArrayUserType(), text("[0:1]"))
+		);
+	}
+
+	private static DynamicTest decodes(final String name, final ArrayUserType<?> type, final byte[] column, final Object expected) {
+		return dynamicTest(name, () -> {
+			final Object actual = type.nullSafeGet(resultSet(column), new String[] { "col" }, null, null);
+			assertTrue(type.equals(expected, actual), () -> "expected " + Arrays.deepToString(new Object[] { expected }) + " but got " + Arrays.deepToString(new Object[] { actual }));
+		});
+	}
+
+	private static DynamicTest rejects(final String name, final ArrayUserType<?> type, final byte[] column) {
+		return dynamicTest(name, () -> assertThrows(HibernateException.class, () -> type.nullSafeGet(resultSet(column), new String[] { "col" }, null, null)));
+	}
+
+	/** A result set whose only column holds these raw bytes, the way pgjdbc's getBytes() returns them */
+	private static ResultSet resultSet(final byte[] column) {
+		return (ResultSet)Proxy.newProxyInstance(ArrayUserTypeTest.class.getClassLoader(), new Class<?>[] { ResultSet.class }, (proxy, method, args) -> {
+			if (method.getName().equals("getBytes"))
+				return column;
+
+			throw new UnsupportedOperationException(method.getName());
+		});
+	}
+
+	private static byte[] text(final String literal) {
+		return utf8(literal);
+	}
+
+	private static byte[] utf8(final String value) {
+		return value.getBytes(StandardCharsets.UTF_8);
+	}
+
+	/** What array_send produces for an empty array: no dimensions */
+	private static byte[] emptyBinary(final int oid) {
+		return ByteBuffer.allocate(12).putInt(0).putInt(0).putInt(oid).array();
+	}
+
+	/** array_send format for one dimension; a null element is sent as length -1 */
+	private static byte[] binary(final int oid, final int lowerBound, final byte[][] elements) {
+		boolean hasNull = false;
+		int size = 20;
+		for (final byte[] element : elements) {
+			hasNull |= element == null;
+			size += 4 + (element == null ? 0 : element.length);
+		}
+
+		final ByteBuffer data = ByteBuffer.allocate(size)
+				.putInt(1)
+				.putInt(hasNull ? 1 : 0)
+				.putInt(oid)
+				.putInt(elements.length)
+				.putInt(lowerBound);
+
+		for (final byte[] element : elements) {
+			if (element == null) {
+				data.putInt(-1);
+			} else {
+				data.putInt(element.length);
+				data.put(element);
+			}
+		}
+
+		return data.array();
+	}
+
+	private static byte[][] longs(final long... values) {
+		return Arrays.stream(values).mapToObj(v -> ByteBuffer.allocate(8).putLong(v).array()).toArray(byte[][]::new);
+	}
+
+	private static byte[][] ints(final int... values) {
+		return Arrays.stream(values).mapToObj(v -> ByteBuffer.allocate(4).putInt(v).array()).toArray(byte[][]::new);
+	}
+
+	private static byte[] uuid(final UUID value) {
+		return ByteBuffer.allocate(16).putLong(value.getMostSignificantBits()).putLong(value.getLeastSignificantBits()).array();
+	}
+}